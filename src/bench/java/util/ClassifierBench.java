@@ -0,0 +1,63 @@
+package bench.java.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import main.java.util.Classifier;
+import main.java.util.Classifier.Kind;
+
+/*
+ * Классификация уже прочитанных строк: Classifier и прежние проверки
+ * isInteger/isFloat регулярными выражениями, с которыми его и сравнивать
+ */
+@State(Scope.Benchmark)
+public class ClassifierBench {
+
+	// как в Util до Classifier
+	private static final Pattern numEx = Pattern.compile("^(0|-?[1-9][0-9]*)$");
+	private static final Pattern decEx = Pattern.compile("^-?([0-9]*(\\.[0-9]+)?|\\.[0-9]+)([eE]-?[0-9]+)?$");
+
+	@Param({ "INTS", "LONG_NUMBERS", "UNICODE", "LONG_LINES", "MIXED" })
+	Datasets.Mix mix;
+
+	@Param("16")
+	int megabytes;
+
+	private String[] lines;
+	private long bytes;
+
+	@Setup
+	public void generate() {
+		List<String> generated = Datasets.lines(mix, megabytes * 1024L * 1024L, 42);
+		lines = generated.toArray(new String[0]);
+		for (String line : lines)
+			bytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+	}
+
+	@Benchmark
+	public int classify(Throughput throughput) {
+		int numbers = 0;
+		for (String line : lines)
+			if (Classifier.classify(line) != Kind.STRING)
+				numbers++;
+		throughput.add(bytes, lines.length);
+		return numbers;
+	}
+
+	@Benchmark
+	public int regex(Throughput throughput) {
+		int numbers = 0;
+		for (String line : lines)
+			if (numEx.matcher(line.trim()).matches() || decEx.matcher(line.replace(",", ".").trim()).matches())
+				numbers++;
+		throughput.add(bytes, lines.length);
+		return numbers;
+	}
+}
@@ -0,0 +1,112 @@
+package bench.java.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Генератор входных данных для бенчмарков. Данные зависят только от набора и
+ * seed, поэтому результаты разных запусков сравнимы между собой
+ */
+public final class Datasets {
+
+	public enum Mix {
+		/** В основном короткие целые, немного дробных и слов */
+		INTS,
+		/** Длинные числа на 20-60 цифр, целые и дробные */
+		LONG_NUMBERS,
+		/** Текст кириллицей, иероглифами и эмодзи */
+		UNICODE,
+		/** Строки по 10-100 тысяч символов */
+		LONG_LINES,
+		/** Всего поровну */
+		MIXED
+	}
+
+	private static final String[] WORDS = { "строка", "текст", "Lorem", "ipsum", "данные", "数据", "文本", "😀", "🚀",
+			"ñandú", "Straße", "+76766897877", "9.05e+7" };
+
+	private Datasets() {
+	}
+
+	public static List<String> lines(Mix mix, long bytes, long seed) {
+		Random random = new Random(seed);
+		List<String> lines = new ArrayList<>();
+		long size = 0;
+		while (size < bytes) {
+			String line = line(mix, random);
+			lines.add(line);
+			size += line.length() + 1;
+		}
+		return lines;
+	}
+
+	public static long write(Path file, Mix mix, long bytes, long seed) throws IOException {
+		long lines = 0;
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			for (String line : lines(mix, bytes, seed)) {
+				writer.write(line);
+				writer.newLine();
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	static String line(Mix mix, Random random) {
+		switch (mix) {
+			case INTS:
+				int roll = random.nextInt(10);
+				if (roll < 8)
+					return String.valueOf(random.nextInt(2_000_000) - 1_000_000);
+				return roll == 8 ? decimal(random, 6) : word(random);
+			case LONG_NUMBERS:
+				return random.nextBoolean() ? integer(random, 20 + random.nextInt(41))
+						: decimal(random, 20 + random.nextInt(41));
+			case UNICODE:
+				return text(random, 1 + random.nextInt(12));
+			case LONG_LINES:
+				return text(random, 2_000 + random.nextInt(18_000));
+			default:
+				return line(Mix.values()[random.nextInt(Mix.values().length - 1)], random);
+		}
+	}
+
+	private static String integer(Random random, int digits) {
+		StringBuilder sb = new StringBuilder(digits + 1);
+		if (random.nextBoolean())
+			sb.append('-');
+		sb.append((char) ('1' + random.nextInt(9)));
+		for (int i = 1; i < digits; i++)
+			sb.append((char) ('0' + random.nextInt(10)));
+		return sb.toString();
+	}
+
+	private static String decimal(Random random, int digits) {
+		String num = integer(random, digits);
+		int point = num.length() - 1 - random.nextInt(Math.max(1, digits - 1));
+		String dec = num.substring(0, point) + "." + num.substring(point);
+		if (random.nextInt(5) == 0)
+			dec += "e" + (random.nextInt(40) - 20);
+		return dec;
+	}
+
+	private static String word(Random random) {
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	private static String text(Random random, int words) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			if (i > 0)
+				sb.append(' ');
+			sb.append(word(random));
+		}
+		return sb.toString();
+	}
+}
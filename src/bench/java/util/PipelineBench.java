@@ -0,0 +1,70 @@
+package bench.java.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import main.java.util.Util;
+
+/*
+ * Полный путь чтение - классификация - запись через Util.main. Каждая
+ * итерация перезаписывает выходные файлы в одном и том же временном каталоге
+ */
+@State(Scope.Benchmark)
+public class PipelineBench {
+
+	@Param({ "INTS", "LONG_NUMBERS", "UNICODE", "LONG_LINES", "MIXED" })
+	Datasets.Mix mix;
+
+	@Param("64")
+	int megabytes;
+
+	/** Дополнительные опции запуска через пробел, например "-f" или "--mmap -t 4" */
+	@Param({ "", "--mmap", "-f" })
+	String options;
+
+	private Path dir;
+	private String[] args;
+	private long bytes;
+	private long lines;
+
+	@Setup
+	public void generate() throws IOException {
+		dir = Files.createTempDirectory("sorting-util-bench");
+		Path input = dir.resolve("input.txt");
+		lines = Datasets.write(input, mix, megabytes * 1024L * 1024L, 42);
+		bytes = Files.size(input);
+
+		List<String> list = new ArrayList<>();
+		if (!options.isBlank())
+			list.addAll(Arrays.asList(options.trim().split("\\s+")));
+		list.addAll(List.of("-o", dir.resolve("out").toString(), input.toString()));
+		args = list.toArray(new String[0]);
+	}
+
+	@TearDown
+	public void delete() throws IOException {
+		try (Stream<Path> paths = Files.walk(dir)) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+				Files.delete(path);
+		}
+	}
+
+	@Benchmark
+	public void run(Throughput throughput) {
+		Util.main(args);
+		throughput.add(bytes, lines);
+	}
+}
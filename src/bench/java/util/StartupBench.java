@@ -0,0 +1,91 @@
+package bench.java.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Время запуска утилиты отдельным процессом на маленьком файле, как её
+ * вызывают из скриптов: jar - обычный java -jar, cds - с архивом
+ * target/sorting-util.jsa (mvn -Pcds package), native - target/sorting-util
+ * (mvn -Pnative package, запускать с -p launcher=native)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 30)
+@Fork(1)
+public class StartupBench {
+
+	@Param({ "jar", "cds" })
+	String launcher;
+
+	@Param("4")
+	int kilobytes;
+
+	private Path dir;
+	private List<String> command;
+
+	@Setup
+	public void prepare() throws IOException {
+		Path target = Path.of("target").toAbsolutePath();
+		Path jar = target.resolve("sorting-util-1.0.jar");
+		String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+		command = new ArrayList<>();
+		switch (launcher) {
+			case "jar" -> command.addAll(List.of(java, "-jar", require(jar, "mvn package")));
+			case "cds" -> command.addAll(List.of(java, "-XX:SharedArchiveFile=" + require(target.resolve("sorting-util.jsa"),
+					"mvn -Pcds package"), "-jar", require(jar, "mvn package")));
+			case "native" -> command.add(require(target.resolve("sorting-util"), "mvn -Pnative package"));
+			default -> throw new IllegalArgumentException("launcher: jar, cds или native");
+		}
+
+		dir = Files.createTempDirectory("sorting-util-startup");
+		Path input = dir.resolve("input.txt");
+		Datasets.write(input, Datasets.Mix.MIXED, kilobytes * 1024L, 42);
+		command.addAll(List.of("-o", dir.resolve("out").toString(), "-s", input.toString()));
+	}
+
+	private static String require(Path file, String build) {
+		if (!Files.exists(file))
+			throw new IllegalStateException("Нет " + file + ", сначала выполните " + build);
+		return file.toString();
+	}
+
+	@TearDown
+	public void delete() throws IOException {
+		try (Stream<Path> paths = Files.walk(dir)) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+				Files.delete(path);
+		}
+	}
+
+	@Benchmark
+	public int run() throws Exception {
+		Process process = new ProcessBuilder(command).redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+		int code = process.waitFor();
+		if (code != 0)
+			throw new IllegalStateException("Код завершения " + code);
+		return code;
+	}
+}
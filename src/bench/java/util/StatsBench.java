@@ -0,0 +1,61 @@
+package bench.java.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import main.java.util.Classifier;
+import main.java.util.Classifier.Kind;
+import main.java.util.Stats;
+
+/*
+ * Полная статистика по числам из набора. Строки заранее разложены по
+ * категориям, так что измеряется только Stats
+ */
+@State(Scope.Benchmark)
+public class StatsBench {
+
+	@Param({ "INTS", "LONG_NUMBERS", "MIXED" })
+	Datasets.Mix mix;
+
+	@Param("16")
+	int megabytes;
+
+	private final Stats stats = new Stats();
+	private final List<String> integers = new ArrayList<>();
+	private final List<String> decimals = new ArrayList<>();
+	private long integerBytes;
+	private long decimalBytes;
+
+	@Setup
+	public void generate() {
+		for (String line : Datasets.lines(mix, megabytes * 1024L * 1024L, 42)) {
+			Kind kind = Classifier.classify(line);
+			// пустые строки и "-" классификатор тоже считает дробными, но Stats их не принимает
+			if (kind == Kind.INTEGER) {
+				integers.add(line.trim());
+				integerBytes += line.length() + 1;
+			} else if (kind == Kind.FLOAT && line.trim().matches(".*\\d.*")) {
+				decimals.add(line.trim());
+				decimalBytes += line.length() + 1;
+			}
+		}
+	}
+
+	@Benchmark
+	public Stats.IntResult intStats(Throughput throughput) {
+		throughput.add(integerBytes, integers.size());
+		return stats.intStats(integers);
+	}
+
+	@Benchmark
+	public Stats.DecResult decimalStats(Throughput throughput) {
+		throughput.add(decimalBytes, decimals.size());
+		return stats.decimalStats(decimals);
+	}
+}
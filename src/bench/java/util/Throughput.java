@@ -0,0 +1,29 @@
+package bench.java.util;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Дополнительные счётчики JMH: в режиме Throughput они выводятся как
+ * megabytes ops/s и lines ops/s, то есть МБ/с и строк/с
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class Throughput {
+	public double megabytes;
+	public long lines;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		megabytes = 0;
+		lines = 0;
+	}
+
+	void add(long bytes, long lines) {
+		this.megabytes += bytes / (1024.0 * 1024.0);
+		this.lines += lines;
+	}
+}
@@ -0,0 +1,320 @@
+package main.java.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/*
+ * Включённые категории в порядке приоритета. Для каждого символа ASCII
+ * заранее известно, какие категории могут начинаться с него, поэтому строка
+ * проверяется только теми категориями, которым подходят её первый символ и
+ * длина; остальные строки проходят за одно обращение к таблице
+ */
+public final class Categories {
+
+	/** Встроенные категории: даты ISO 8601, UUID, адреса IPv4 и числа 0x... */
+	public static final List<Category> BUILTIN = List.of(
+			new Builtin("date", "0123456789", 10, 35, Categories::isDate),
+			new Builtin("uuid", "0123456789abcdefABCDEF", 36, 36, Categories::isUuid),
+			new Builtin("ipv4", "0123456789", 7, 15, Categories::isIpv4),
+			new Builtin("hex", "0", 3, Integer.MAX_VALUE, Categories::isHex));
+
+	// имена выходных файлов, которые уже заняты, и all из --stdout all
+	private static final Set<String> RESERVED = Set.of("integers", "floats", "strings", "manifest", "rejected", "all");
+	private static final int NON_ASCII = 128;
+	private static final int[] NONE = {};
+
+	private record Builtin(String name, String firstChars, int minLength, int maxLength,
+			Predicate<CharSequence> test) implements Category {
+		@Override
+		public boolean matches(CharSequence value) {
+			return test.test(value);
+		}
+	}
+
+	private final Category[] categories;
+	private final int[] minLength;
+	private final int[] maxLength;
+	// номера категорий по первому символу записи, NON_ASCII - для любого символа не из ASCII
+	private final int[][] byFirstChar = new int[NON_ASCII + 1][];
+
+	public Categories(List<? extends Category> categories) {
+		this.categories = categories.toArray(new Category[0]);
+		this.minLength = new int[this.categories.length];
+		this.maxLength = new int[this.categories.length];
+		Set<String> names = new HashSet<>();
+		List<List<Integer>> table = new ArrayList<>();
+		for (int c = 0; c <= NON_ASCII; c++)
+			table.add(new ArrayList<>());
+		for (int i = 0; i < this.categories.length; i++) {
+			Category category = this.categories[i];
+			String name = category.name();
+			if (name == null || !name.matches("[A-Za-z0-9_-]+") || RESERVED.contains(name))
+				throw new IllegalArgumentException("Недопустимое имя категории " + name);
+			if (!names.add(name))
+				throw new IllegalArgumentException("Категория " + name + " указана дважды");
+			minLength[i] = Math.max(1, category.minLength());
+			maxLength[i] = category.maxLength();
+			String first = category.firstChars();
+			for (int c = 0; c <= NON_ASCII; c++) {
+				if (first == null || (c < NON_ASCII ? first.indexOf(c) >= 0 : first.chars().anyMatch(ch -> ch >= NON_ASCII)))
+					table.get(c).add(i);
+			}
+		}
+		for (int c = 0; c <= NON_ASCII; c++) {
+			List<Integer> candidates = table.get(c);
+			byFirstChar[c] = candidates.isEmpty() ? NONE : candidates.stream().mapToInt(Integer::intValue).toArray();
+		}
+	}
+
+	/** Встроенные категории и найденные через ServiceLoader, по именам. */
+	public static Map<String, Category> available() {
+		Map<String, Category> available = new LinkedHashMap<>();
+		for (Category category : BUILTIN)
+			available.put(category.name(), category);
+		for (Category category : ServiceLoader.load(Category.class))
+			available.putIfAbsent(category.name(), category);
+		return available;
+	}
+
+	/**
+	 * Категории с указанными именами в том же порядке.
+	 *
+	 * @throws IllegalArgumentException если такой категории нет
+	 */
+	public static Categories of(List<String> names) {
+		Map<String, Category> available = available();
+		List<Category> categories = new ArrayList<>();
+		for (String name : names) {
+			Category category = available.get(name);
+			if (category == null)
+				throw new IllegalArgumentException("Неизвестная категория " + name + ", доступны: "
+						+ String.join(", ", available.keySet()));
+			categories.add(category);
+		}
+		return new Categories(categories);
+	}
+
+	public int size() {
+		return categories.length;
+	}
+
+	public Category get(int index) {
+		return categories[index];
+	}
+
+	public String[] names() {
+		return Arrays.stream(categories).map(Category::name).toArray(String[]::new);
+	}
+
+	private int[] candidates(int firstChar) {
+		return byFirstChar[Math.min(firstChar, NON_ASCII)];
+	}
+
+	/** Номер первой подошедшей категории для строки (пробелы по краям не учитываются) или -1. */
+	public int match(String line) {
+		int start = Classifier.trimStart(line);
+		int end = Classifier.trimEnd(line);
+		if (start >= end)
+			return -1;
+		int length = end - start;
+		CharSequence value = null;
+		for (int c : candidates(line.charAt(start))) {
+			if (length < minLength[c] || length > maxLength[c])
+				continue;
+			if (value == null)
+				value = CharBuffer.wrap(line, start, end);
+			if (categories[c].matches(value))
+				return c;
+		}
+		return -1;
+	}
+
+	/** То же для уже обрезанной записи из байтов UTF-8 [start, end) буфера. */
+	public int match(ByteBuffer buf, int start, int end) {
+		if (start >= end)
+			return -1;
+		int bytes = end - start;
+		CharSequence value = null;
+		for (int c : candidates(buf.get(start) & 0xff)) {
+			// символов UTF-16 не больше, чем байтов UTF-8, и не меньше трети от них
+			if (bytes < minLength[c] || (bytes + 2) / 3 > maxLength[c])
+				continue;
+			if (value == null)
+				value = chars(buf, start, end);
+			if (value.length() >= minLength[c] && value.length() <= maxLength[c] && categories[c].matches(value))
+				return c;
+		}
+		return -1;
+	}
+
+	private static CharSequence chars(ByteBuffer buf, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buf.get(i) < 0) {
+				byte[] bytes = new byte[end - start];
+				buf.get(start, bytes);
+				return new String(bytes, Util.encoding);
+			}
+		}
+		return new Ascii(buf, start, end);
+	}
+
+	// строка ASCII прямо из буфера, без копирования
+	private static final class Ascii implements CharSequence {
+		private final ByteBuffer buf;
+		private final int start;
+		private final int end;
+
+		Ascii(ByteBuffer buf, int start, int end) {
+			this.buf = buf;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public int length() {
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) buf.get(start + index);
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return new Ascii(buf, start + from, start + to);
+		}
+
+		@Override
+		public String toString() {
+			byte[] bytes = new byte[end - start];
+			buf.get(start, bytes);
+			return new String(bytes, Util.encoding);
+		}
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isHexDigit(char c) {
+		return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	/** Число из цифр [from, to); -1, если там не только цифры. */
+	private static int number(CharSequence s, int from, int to) {
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			char c = s.charAt(i);
+			if (!isDigit(c))
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static int daysIn(int year, int month) {
+		if (month == 2)
+			return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+		return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+	}
+
+	/** yyyy-MM-dd, за ним может идти время [T ]HH:mm[:ss[.f]] и зона Z или ±HH:mm. */
+	static boolean isDate(CharSequence s) {
+		int n = s.length();
+		if (n < 10 || s.charAt(4) != '-' || s.charAt(7) != '-')
+			return false;
+		int year = number(s, 0, 4);
+		int month = number(s, 5, 7);
+		int day = number(s, 8, 10);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysIn(year, month))
+			return false;
+		if (n == 10)
+			return true;
+		char separator = s.charAt(10);
+		if ((separator != 'T' && separator != ' ') || n < 16 || s.charAt(13) != ':')
+			return false;
+		int hour = number(s, 11, 13);
+		int minute = number(s, 14, 16);
+		if (hour < 0 || hour > 23 || minute < 0 || minute > 59)
+			return false;
+		int i = 16;
+		if (i < n && s.charAt(i) == ':') {
+			// 60 - секунда координации
+			int second = i + 3 <= n ? number(s, i + 1, i + 3) : -1;
+			if (second < 0 || second > 60)
+				return false;
+			i += 3;
+			if (i < n && s.charAt(i) == '.') {
+				int from = ++i;
+				while (i < n && isDigit(s.charAt(i)))
+					i++;
+				if (i == from || i - from > 9)
+					return false;
+			}
+		}
+		if (i == n)
+			return true;
+		char zone = s.charAt(i);
+		if (zone == 'Z')
+			return i + 1 == n;
+		if ((zone != '+' && zone != '-') || n != i + 6 || s.charAt(i + 3) != ':')
+			return false;
+		int zoneHour = number(s, i + 1, i + 3);
+		int zoneMinute = number(s, i + 4, i + 6);
+		return zoneHour >= 0 && zoneHour <= 18 && zoneMinute >= 0 && zoneMinute <= 59;
+	}
+
+	/** 8-4-4-4-12 шестнадцатеричных цифр. */
+	static boolean isUuid(CharSequence s) {
+		if (s.length() != 36)
+			return false;
+		for (int i = 0; i < 36; i++) {
+			char c = s.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23 ? c != '-' : !isHexDigit(c))
+				return false;
+		}
+		return true;
+	}
+
+	/** Четыре десятичных числа 0-255 через точку, без ведущих нулей. */
+	static boolean isIpv4(CharSequence s) {
+		int n = s.length();
+		int i = 0;
+		for (int part = 0; part < 4; part++) {
+			if (part > 0) {
+				if (i >= n || s.charAt(i) != '.')
+					return false;
+				i++;
+			}
+			int from = i;
+			while (i < n && i - from < 4 && isDigit(s.charAt(i)))
+				i++;
+			int digits = i - from;
+			if (digits == 0 || digits > 3 || (digits > 1 && s.charAt(from) == '0') || number(s, from, i) > 255)
+				return false;
+		}
+		return i == n;
+	}
+
+	/** 0x или 0X и хотя бы одна шестнадцатеричная цифра. */
+	static boolean isHex(CharSequence s) {
+		int n = s.length();
+		if (n < 3 || s.charAt(0) != '0' || (s.charAt(1) != 'x' && s.charAt(1) != 'X'))
+			return false;
+		for (int i = 2; i < n; i++) {
+			if (!isHexDigit(s.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+}
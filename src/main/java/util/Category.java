@@ -0,0 +1,43 @@
+package main.java.util;
+
+/**
+ * Пользовательская категория записей. Категории включаются опцией --category
+ * по имени; кроме встроенных ({@link Categories#BUILTIN}) подключаются
+ * реализации из jar на classpath, объявленные в
+ * META-INF/services/main.java.util.Category.
+ * <p>
+ * Запись, которую классификатор не признал числом, проверяют включённые
+ * категории в порядке перечисления, первая подошедшая забирает её в свой
+ * файл {@code <префикс><имя>.txt} и в свою статистику длин. Записи без
+ * категории остаются строками. Чтобы не проверять каждую строку каждой
+ * категорией, категория заранее сообщает, с каких символов и какой длины
+ * могут быть её записи.
+ */
+public interface Category {
+
+	/** Имя категории: латиница, цифры, '_' и '-', оно же имя выходного файла. */
+	String name();
+
+	/**
+	 * Подходит ли запись. Вызывается только для записей, которые прошли
+	 * проверку по первому символу и длине.
+	 *
+	 * @param value запись без пробельных символов по краям
+	 */
+	boolean matches(CharSequence value);
+
+	/** Символы, с которых может начинаться запись; null - с любого. */
+	default String firstChars() {
+		return null;
+	}
+
+	/** Наименьшая длина записи в символах UTF-16. */
+	default int minLength() {
+		return 1;
+	}
+
+	/** Наибольшая длина записи в символах UTF-16. */
+	default int maxLength() {
+		return Integer.MAX_VALUE;
+	}
+}
@@ -0,0 +1,178 @@
+package main.java.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ * Однопроходный классификатор строк. Повторяет поведение прежних проверок
+ * numEx = ^(0|-?[1-9][0-9]*)$ по line.trim() и
+ * decEx = ^-?([0-9]*(\.[0-9]+)?|\.[0-9]+)([eE]-?[0-9]+)?$ по line.replace(",", ".").trim(),
+ * но без регулярных выражений и без создания промежуточных строк.
+ */
+public final class Classifier {
+
+	public enum Kind {
+		INTEGER, FLOAT, STRING
+	}
+
+	// классы символов
+	private static final int ZERO = 0;
+	private static final int DIGIT = 1;
+	private static final int MINUS = 2;
+	private static final int DOT = 3;
+	private static final int EXP = 4;
+	private static final int OTHER = 5;
+	private static final int CLASSES = 6;
+
+	// состояния автомата
+	private static final int START = 0;
+	private static final int SIGN = 1;
+	private static final int INT_ZERO = 2; // "0"
+	private static final int INT = 3; // целое по numEx
+	private static final int DIGITS = 4; // цифры, но не целое: "-0", "007"
+	private static final int POINT = 5;
+	private static final int FRACTION = 6;
+	private static final int EXP_MARK = 7;
+	private static final int EXP_SIGN = 8;
+	private static final int EXP_DIGITS = 9;
+	private static final int DEAD = 10;
+	private static final int STATES = 11;
+
+	private static final byte[] charClass = new byte[128];
+	private static final byte[] transitions = new byte[STATES * CLASSES];
+	private static final Kind[] verdict = new Kind[STATES];
+
+	static {
+		Arrays.fill(charClass, (byte) OTHER);
+		charClass['0'] = ZERO;
+		for (char c = '1'; c <= '9'; c++)
+			charClass[c] = DIGIT;
+		charClass['-'] = MINUS;
+		charClass['.'] = DOT;
+		charClass[','] = DOT;
+		charClass['e'] = EXP;
+		charClass['E'] = EXP;
+
+		Arrays.fill(transitions, (byte) DEAD);
+		on(START, MINUS, SIGN);
+		on(START, ZERO, INT_ZERO);
+		on(START, DIGIT, INT);
+		on(SIGN, ZERO, DIGITS);
+		on(SIGN, DIGIT, INT);
+		on(INT_ZERO, ZERO, DIGITS);
+		on(INT_ZERO, DIGIT, DIGITS);
+		on(INT, ZERO, INT);
+		on(INT, DIGIT, INT);
+		on(DIGITS, ZERO, DIGITS);
+		on(DIGITS, DIGIT, DIGITS);
+		for (int state : new int[] { START, SIGN, INT_ZERO, INT, DIGITS }) {
+			on(state, DOT, POINT);
+			on(state, EXP, EXP_MARK);
+		}
+		on(POINT, ZERO, FRACTION);
+		on(POINT, DIGIT, FRACTION);
+		on(FRACTION, ZERO, FRACTION);
+		on(FRACTION, DIGIT, FRACTION);
+		on(FRACTION, EXP, EXP_MARK);
+		on(EXP_MARK, MINUS, EXP_SIGN);
+		on(EXP_MARK, ZERO, EXP_DIGITS);
+		on(EXP_MARK, DIGIT, EXP_DIGITS);
+		on(EXP_SIGN, ZERO, EXP_DIGITS);
+		on(EXP_SIGN, DIGIT, EXP_DIGITS);
+		on(EXP_DIGITS, ZERO, EXP_DIGITS);
+		on(EXP_DIGITS, DIGIT, EXP_DIGITS);
+
+		Arrays.fill(verdict, Kind.STRING);
+		verdict[INT_ZERO] = Kind.INTEGER;
+		verdict[INT] = Kind.INTEGER;
+		// decEx допускает и пустую строку, и одинокий минус
+		verdict[START] = Kind.FLOAT;
+		verdict[SIGN] = Kind.FLOAT;
+		verdict[DIGITS] = Kind.FLOAT;
+		verdict[FRACTION] = Kind.FLOAT;
+		verdict[EXP_DIGITS] = Kind.FLOAT;
+	}
+
+	private static void on(int state, int cls, int next) {
+		transitions[state * CLASSES + cls] = (byte) next;
+	}
+
+	private Classifier() {
+	}
+
+	/** Первый символ, который останется после {@link String#trim()}. */
+	public static int trimStart(CharSequence line) {
+		int start = 0;
+		int end = line.length();
+		while (start < end && line.charAt(start) <= ' ')
+			start++;
+		return start;
+	}
+
+	/** Позиция после последнего символа, который останется после {@link String#trim()}. */
+	public static int trimEnd(CharSequence line) {
+		int end = line.length();
+		while (end > 0 && line.charAt(end - 1) <= ' ')
+			end--;
+		return end;
+	}
+
+	public static Kind classify(CharSequence line) {
+		int start = trimStart(line);
+		int end = start == line.length() ? start : trimEnd(line);
+		return classify(line, start, end);
+	}
+
+	/** Классифицирует уже обрезанный фрагмент [start, end). */
+	public static Kind classify(CharSequence line, int start, int end) {
+		int state = START;
+		for (int i = start; i < end && state != DEAD; i++) {
+			char c = line.charAt(i);
+			int cls = c < 128 ? charClass[c] : OTHER;
+			state = transitions[state * CLASSES + cls];
+		}
+		return verdict[state];
+	}
+
+	/**
+	 * Есть ли цифры в обрезанной записи, которую {@link #classify} счёл FLOAT:
+	 * decEx допускает "-", "e5" и "-e-5", но числом их не прочитать.
+	 */
+	public static boolean hasDigits(CharSequence line, int start, int end) {
+		int i = start < end && line.charAt(start) == '-' ? start + 1 : start;
+		return i < end && charClass[line.charAt(i)] != EXP;
+	}
+
+	/*
+	 * те же проверки по сырым байтам UTF-8: все символы, которые отрезает trim()
+	 * и которые различает автомат, - ASCII, а любой байт многобайтного символа
+	 * попадает в класс OTHER
+	 */
+	public static int trimStart(ByteBuffer buf, int start, int end) {
+		while (start < end && (buf.get(start) & 0xff) <= ' ')
+			start++;
+		return start;
+	}
+
+	public static int trimEnd(ByteBuffer buf, int start, int end) {
+		while (end > start && (buf.get(end - 1) & 0xff) <= ' ')
+			end--;
+		return end;
+	}
+
+	/** Классифицирует уже обрезанный фрагмент [start, end) байтового буфера. */
+	public static Kind classify(ByteBuffer buf, int start, int end) {
+		int state = START;
+		for (int i = start; i < end && state != DEAD; i++) {
+			int b = buf.get(i);
+			int cls = b >= 0 ? charClass[b] : OTHER;
+			state = transitions[state * CLASSES + cls];
+		}
+		return verdict[state];
+	}
+
+	public static boolean hasDigits(ByteBuffer buf, int start, int end) {
+		int i = start < end && buf.get(start) == '-' ? start + 1 : start;
+		return i < end && charClass[buf.get(i)] != EXP;
+	}
+}
@@ -0,0 +1,216 @@
+package main.java.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Копит числа одного выходного файла в блоки формата {@link Columnar} и
+ * отдаёт готовые блоки для записи. Целые разбираются из байтов без создания
+ * строк; дробные - тоже, если в них не больше 15 значащих цифр и нет
+ * порядка, тогда частное двух точных double даёт то же, что
+ * Double.parseDouble, иначе разбирает Double.parseDouble
+ */
+final class ColumnWriter {
+
+	static final int BLOCK_RECORDS = 8192;
+	// 10^0 .. 10^22 представимы в double точно
+	private static final double[] POWERS = new double[23];
+	private static final long MAX_EXACT = 1L << 53;
+
+	static {
+		POWERS[0] = 1;
+		for (int i = 1; i < POWERS.length; i++)
+			POWERS[i] = POWERS[i - 1] * 10;
+	}
+
+	private final boolean floats;
+	private final long[] longs = new long[BLOCK_RECORDS];
+	private final double[] doubles;
+	private int count = 0;
+	private ByteBuffer bigs = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+	private int bigCount = 0;
+	private BigInteger bigMin;
+	private BigInteger bigMax;
+	private final ByteBuffer block = ByteBuffer.allocate(Columnar.BLOCK_HEADER + BLOCK_RECORDS * 8)
+			.order(ByteOrder.LITTLE_ENDIAN);
+
+	/** @param floats дробные (floats.bin), иначе целые */
+	ColumnWriter(boolean floats) {
+		this.floats = floats;
+		this.doubles = floats ? new double[BLOCK_RECORDS] : null;
+	}
+
+	ByteBuffer fileHeader() {
+		ByteBuffer header = ByteBuffer.allocate(Columnar.FILE_HEADER);
+		header.put(Columnar.MAGIC).put(floats ? Columnar.FLOATS_FILE : Columnar.INTEGERS_FILE);
+		return header.clear();
+	}
+
+	/** Запись, уже классифицированная как число; ',' в дробных допустима. */
+	void add(ByteBuffer src, int start, int end) {
+		if (floats) {
+			doubles[count++] = parseDouble(src, start, end);
+			return;
+		}
+		int len = end - start;
+		boolean negative = src.get(start) == '-';
+		// 18 цифр помещаются в long всегда, дальше - проверка переполнения
+		long value = 0;
+		int i = negative ? start + 1 : start;
+		for (; i < end && i - start < 18; i++)
+			value = value * 10 + (src.get(i) - '0');
+		for (; i < end; i++) {
+			int digit = src.get(i) - '0';
+			if (value > (Long.MAX_VALUE - digit) / 10) {
+				// -2^63 сюда тоже попадает, ему место в BIG_INTEGERS не помешает
+				addBig(new BigInteger(ascii(src, start, len)));
+				return;
+			}
+			value = value * 10 + digit;
+		}
+		longs[count++] = negative ? -value : value;
+	}
+
+	/** Готов ли полный блок. */
+	boolean isFull() {
+		return count == BLOCK_RECORDS || bigCount == BLOCK_RECORDS;
+	}
+
+	boolean isEmpty() {
+		return count == 0 && bigCount == 0;
+	}
+
+	/**
+	 * Следующий блок для записи (полный, а если full - любой непустой) или
+	 * null. Буфер действителен до следующего вызова.
+	 */
+	ByteBuffer take(boolean full) {
+		if (count > 0 && (!full || count == BLOCK_RECORDS))
+			return floats ? doublesBlock() : longsBlock();
+		if (bigCount > 0 && (!full || bigCount == BLOCK_RECORDS))
+			return bigsBlock();
+		return null;
+	}
+
+	private ByteBuffer longsBlock() {
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		header(Columnar.LONGS, count, count * 8);
+		for (int i = 0; i < count; i++) {
+			long value = longs[i];
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+			block.putLong(value);
+		}
+		block.putLong(16, min).putLong(24, max);
+		count = 0;
+		return block.flip();
+	}
+
+	private ByteBuffer doublesBlock() {
+		double min = Double.NaN;
+		double max = Double.NaN;
+		header(Columnar.DOUBLES, count, count * 8);
+		for (int i = 0; i < count; i++) {
+			double value = doubles[i];
+			if (!Double.isNaN(value)) {
+				min = Double.isNaN(min) ? value : Math.min(min, value);
+				max = Double.isNaN(max) ? value : Math.max(max, value);
+			}
+			block.putDouble(value);
+		}
+		block.putDouble(16, min).putDouble(24, max);
+		count = 0;
+		return block.flip();
+	}
+
+	private ByteBuffer bigsBlock() {
+		ByteBuffer out = bigs.position() <= block.capacity() - Columnar.BLOCK_HEADER ? block
+				: ByteBuffer.allocate(Columnar.BLOCK_HEADER + bigs.position()).order(ByteOrder.LITTLE_ENDIAN);
+		out.clear();
+		out.put(Columnar.BIG_INTEGERS).put(new byte[3]).putInt(bigCount).putInt(bigs.position()).putInt(0);
+		out.putDouble(lowerBound(bigMin)).putDouble(upperBound(bigMax));
+		out.put(bigs.flip());
+		bigs.clear();
+		bigCount = 0;
+		bigMin = bigMax = null;
+		return out.flip();
+	}
+
+	// doubleValue() округляет до ближайшего, а по min и max блоки пропускают
+	private static double lowerBound(BigInteger value) {
+		double d = value.doubleValue();
+		if (Double.isInfinite(d) ? d > 0 : new BigDecimal(d).compareTo(new BigDecimal(value)) > 0)
+			return Math.nextDown(d);
+		return d;
+	}
+
+	private static double upperBound(BigInteger value) {
+		double d = value.doubleValue();
+		if (Double.isInfinite(d) ? d < 0 : new BigDecimal(d).compareTo(new BigDecimal(value)) < 0)
+			return Math.nextUp(d);
+		return d;
+	}
+
+	private void header(byte type, int records, int length) {
+		block.clear();
+		block.put(type).put(new byte[3]).putInt(records).putInt(length).putInt(0).putLong(0).putLong(0);
+	}
+
+	private void addBig(BigInteger value) {
+		byte[] bytes = value.toByteArray();
+		if (bigs.remaining() < 4 + bytes.length) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(bigs.capacity() * 2, bigs.position() + 4 + bytes.length))
+					.order(ByteOrder.LITTLE_ENDIAN);
+			bigs = grown.put(bigs.flip());
+		}
+		bigs.putInt(bytes.length).put(bytes);
+		bigMin = bigMin == null || value.compareTo(bigMin) < 0 ? value : bigMin;
+		bigMax = bigMax == null || value.compareTo(bigMax) > 0 ? value : bigMax;
+		bigCount++;
+	}
+
+	static double parseDouble(ByteBuffer src, int start, int end) {
+		boolean negative = src.get(start) == '-';
+		long mantissa = 0;
+		int digits = 0;
+		int scale = -1;
+		for (int i = negative ? start + 1 : start; i < end; i++) {
+			byte b = src.get(i);
+			if (b == '.' || b == ',') {
+				scale = 0;
+				continue;
+			}
+			if (b < '0' || b > '9' || (digits == 15 && mantissa > 0)) {
+				// порядок или слишком много цифр
+				return parseSlow(src, start, end);
+			}
+			mantissa = mantissa * 10 + (b - '0');
+			if (mantissa > 0)
+				digits++;
+			if (scale >= 0)
+				scale++;
+		}
+		if ((negative && end - start == 1) || scale > 22 || mantissa >= MAX_EXACT)
+			return parseSlow(src, start, end);
+		double value = scale > 0 ? mantissa / POWERS[scale] : mantissa;
+		return negative ? -value : value;
+	}
+
+	private static double parseSlow(ByteBuffer src, int start, int end) {
+		try {
+			return Double.parseDouble(ascii(src, start, end - start).replace(',', '.'));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	private static String ascii(ByteBuffer src, int start, int len) {
+		byte[] bytes = new byte[len];
+		src.get(start, bytes);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,184 @@
+package main.java.util;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Двоичный формат integers.bin и floats.bin (опция --binary) и его чтение.
+ * Все числа little-endian. Файл начинается с заголовка из
+ * {@link #FILE_HEADER} байт: "SUC1", тип файла ('I' - целые, 'F' - дробные)
+ * и три нулевых байта. Дальше идут блоки, каждый - заголовок из
+ * {@link #BLOCK_HEADER} байт и данные:
+ *
+ * <pre>
+ *  0  byte  тип блока: LONGS, DOUBLES или BIG_INTEGERS
+ *  1  3 байта нули
+ *  4  int   число записей
+ *  8  int   длина данных в байтах
+ * 12  int   нули
+ * 16  min   long для LONGS, double для DOUBLES и BIG_INTEGERS
+ * 24  max   то же
+ * </pre>
+ *
+ * В блоке LONGS и DOUBLES записи фиксированной ширины по 8 байт, их можно
+ * читать прямо из отображённого файла. Целые, которые не помещаются в long,
+ * пишутся в отдельные блоки BIG_INTEGERS: у каждой записи int длины и байты
+ * {@link BigInteger#toByteArray()}, а min и max в заголовке - double,
+ * округлённые вниз и вверх (за пределами double - бесконечности), так что
+ * по ним тоже можно пропускать блоки. Порядок записей сохраняется внутри блоков одного типа,
+ * но не между блоками LONGS и BIG_INTEGERS. Дробные, которые double не
+ * прочитает (одинокий '-' или порядок без мантиссы), записаны как NaN и в
+ * min/max не учитываются. Склеенные файлы (cat, --workers) тоже читаются:
+ * между блоками может снова встретиться заголовок файла, тип блока с "S"
+ * не совпадает.
+ */
+public final class Columnar {
+
+	public static final int FILE_HEADER = 8;
+	public static final int BLOCK_HEADER = 32;
+	public static final byte INTEGERS_FILE = 'I';
+	public static final byte FLOATS_FILE = 'F';
+	public static final byte LONGS = 1;
+	public static final byte DOUBLES = 2;
+	public static final byte BIG_INTEGERS = 3;
+
+	static final byte[] MAGIC = { 'S', 'U', 'C', '1' };
+
+	private Columnar() {
+	}
+
+	/** Заголовок блока; данные отображаются из файла только по запросу. */
+	public static final class Block {
+		private final FileChannel channel;
+		private final long dataOffset;
+		private final byte type;
+		private final int count;
+		private final int length;
+		private final ByteBuffer header;
+
+		private Block(FileChannel channel, long offset, ByteBuffer header) {
+			this.channel = channel;
+			this.dataOffset = offset + BLOCK_HEADER;
+			this.header = header;
+			this.type = header.get(0);
+			this.count = header.getInt(4);
+			this.length = header.getInt(8);
+		}
+
+		public byte type() {
+			return type;
+		}
+
+		public int count() {
+			return count;
+		}
+
+		/** Наименьшее значение блока LONGS. */
+		public long minLong() {
+			return header.getLong(16);
+		}
+
+		public long maxLong() {
+			return header.getLong(24);
+		}
+
+		/** Наименьшее значение блока DOUBLES или оценка снизу для BIG_INTEGERS. */
+		public double minDouble() {
+			return header.getDouble(16);
+		}
+
+		public double maxDouble() {
+			return header.getDouble(24);
+		}
+
+		private ByteBuffer data() throws IOException {
+			return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, length).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		public LongBuffer longs() throws IOException {
+			return data().asLongBuffer();
+		}
+
+		public DoubleBuffer doubles() throws IOException {
+			return data().asDoubleBuffer();
+		}
+
+		public List<BigInteger> bigIntegers() throws IOException {
+			ByteBuffer data = data();
+			List<BigInteger> values = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				byte[] bytes = new byte[data.getInt()];
+				data.get(bytes);
+				values.add(new BigInteger(bytes));
+			}
+			return values;
+		}
+	}
+
+	/** Последовательное чтение блоков файла; файлы больше 2 ГБ тоже читаются. */
+	public static final class Reader implements AutoCloseable {
+		private final FileChannel channel;
+		private final byte kind;
+		private long position = FILE_HEADER;
+
+		public Reader(Path file) throws IOException {
+			this.channel = FileChannel.open(file, StandardOpenOption.READ);
+			ByteBuffer header = read(0, FILE_HEADER);
+			if (header == null || header.getInt(0) != magic()) {
+				channel.close();
+				throw new IOException("Файл " + file + " не в формате --binary");
+			}
+			this.kind = header.get(4);
+		}
+
+		/** {@link #INTEGERS_FILE} или {@link #FLOATS_FILE}. */
+		public byte kind() {
+			return kind;
+		}
+
+		/** Следующий блок или null в конце файла. */
+		public Block next() throws IOException {
+			ByteBuffer start = read(position, FILE_HEADER);
+			if (start != null && start.getInt(0) == magic()) {
+				position += FILE_HEADER;
+				return next();
+			}
+			ByteBuffer header = start == null ? null : read(position, BLOCK_HEADER);
+			if (header == null)
+				return null;
+			Block block = new Block(channel, position, header);
+			position += BLOCK_HEADER + block.length;
+			return block;
+		}
+
+		private static int magic() {
+			return ByteBuffer.wrap(MAGIC).order(ByteOrder.LITTLE_ENDIAN).getInt();
+		}
+
+		private ByteBuffer read(long at, int size) throws IOException {
+			ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+			while (buf.hasRemaining()) {
+				if (channel.read(buf, at + buf.position()) < 0) {
+					if (buf.position() == 0)
+						return null;
+					throw new IOException("Файл обрывается посреди заголовка");
+				}
+			}
+			return buf;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
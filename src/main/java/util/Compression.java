@@ -0,0 +1,212 @@
+package main.java.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/*
+ * Сжатие gzip. Входные файлы gzip и zstd распознаются по сигнатуре и
+ * распаковываются потоком; zstd - через aircompressor, если он на classpath. Выходные сжимаются блоками параллельно, как это делает pigz:
+ * каждый заполненный буфер записи становится отдельным членом gzip, а члены
+ * записываются в файл в исходном порядке. Несколько членов подряд - обычный
+ * gzip-файл, его распаковывают gzip, zcat и GZIPInputStream; поэтому и
+ * дописывание (-a) в .gz файл остаётся корректным
+ */
+final class Compression implements AutoCloseable {
+
+	enum Format {
+		PLAIN, GZIP, ZSTD
+	}
+
+	static final int DEFAULT_LEVEL = Deflater.BEST_COMPRESSION;
+	private static final int INPUT_BUFFER = 64 * 1024;
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final int threads;
+	private final ExecutorService pool;
+	private final ThreadLocal<Deflater> deflaters;
+	private final Metrics metrics;
+
+	Compression(int level, int threads) {
+		this(level, threads, null);
+	}
+
+	/** @param metrics куда добавлять время сжатия (null - не считать) */
+	Compression(int level, int threads, Metrics metrics) {
+		this.threads = threads;
+		this.metrics = metrics;
+		this.pool = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "gzip");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+	}
+
+	/** Сколько блоков одного файла может сжиматься одновременно. */
+	int inFlight() {
+		return 2 * threads;
+	}
+
+	/** Сжимает data[0, length) в отдельный член gzip; data после вызова не должен меняться. */
+	Future<byte[]> submit(byte[] data, int length) {
+		if (metrics == null)
+			return pool.submit(() -> member(deflaters.get(), data, length));
+		return pool.submit(() -> {
+			long since = System.nanoTime();
+			byte[] member = member(deflaters.get(), data, length);
+			metrics.time(Metrics.Stage.COMPRESS, System.nanoTime() - since);
+			return member;
+		});
+	}
+
+	static byte[] member(Deflater deflater, byte[] data, int length) {
+		deflater.reset();
+		deflater.setInput(data, 0, length);
+		deflater.finish();
+		// несжимаемые данные deflate увеличивает не больше чем на 5 байт на 16 КБ
+		byte[] out = new byte[GZIP_HEADER.length + length + length / 16384 * 5 + 64];
+		System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+		int size = GZIP_HEADER.length;
+		while (!deflater.finished()) {
+			if (size == out.length)
+				out = Arrays.copyOf(out, out.length * 2);
+			size += deflater.deflate(out, size, out.length - size);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		out = Arrays.copyOf(out, size + 8);
+		ByteBuffer.wrap(out, size, 8).order(ByteOrder.LITTLE_ENDIAN).putInt((int) crc.getValue())
+				.putInt(length);
+		return out;
+	}
+
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+
+	static Format detect(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			while (magic.hasRemaining() && channel.read(magic) > 0)
+				;
+			return detect(magic.flip());
+		}
+	}
+
+	/** По первым байтам от 0 до limit. */
+	static Format detect(ByteBuffer magic) {
+		if (magic.limit() >= 2 && magic.get(0) == 0x1f && magic.get(1) == (byte) 0x8b)
+			return Format.GZIP;
+		if (magic.limit() >= 4 && magic.getInt(0) == 0x28b52ffd)
+			return Format.ZSTD;
+		return Format.PLAIN;
+	}
+
+	/** Поток распакованных данных файла gzip, в том числе из нескольких членов. */
+	static InputStream openGzip(Path file) throws IOException {
+		return new GZIPInputStream(Files.newInputStream(file), INPUT_BUFFER);
+	}
+
+	/** Распакованные данные: gzip из нескольких членов, zstd из нескольких кадров. */
+	static InputStream decompress(Format format, InputStream in) throws IOException {
+		if (format == Format.GZIP)
+			return new GZIPInputStream(in, INPUT_BUFFER);
+		try {
+			return Zstd.open(new BufferedInputStream(in, INPUT_BUFFER));
+		} catch (LinkageError e) {
+			System.err.println("Для чтения zstd нужен aircompressor: lib/aircompressor-*.jar рядом с jar или на classpath");
+			throw new IOException("нет aircompressor", e);
+		}
+	}
+
+	// отдельный класс: без aircompressor он не загрузится, а Compression - да
+	private static final class Zstd {
+		static InputStream open(InputStream in) {
+			return new io.airlift.compress.zstd.ZstdInputStream(in);
+		}
+	}
+
+	/** Поток, который сжимает записанное блоками по blockSize байт в этом пуле. */
+	OutputStream blocks(OutputStream out, int blockSize) {
+		return new BlockStream(out, blockSize);
+	}
+
+	private final class BlockStream extends OutputStream {
+		private final OutputStream out;
+		private final ArrayDeque<Future<byte[]>> compressing = new ArrayDeque<>();
+		private byte[] block;
+		private int size = 0;
+
+		BlockStream(OutputStream out, int blockSize) {
+			this.out = out;
+			this.block = new byte[blockSize];
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (size == block.length)
+				submitBlock();
+			block[size++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (size == block.length)
+					submitBlock();
+				int n = Math.min(len, block.length - size);
+				System.arraycopy(b, off, block, size, n);
+				size += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		private void submitBlock() throws IOException {
+			compressing.add(submit(block, size));
+			block = new byte[block.length];
+			size = 0;
+			while (compressing.size() > inFlight())
+				writeMember();
+		}
+
+		private void writeMember() throws IOException {
+			try {
+				out.write(compressing.poll().get());
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try (out) {
+				if (size > 0)
+					submitBlock();
+				while (!compressing.isEmpty())
+					writeMember();
+			}
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package main.java.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import main.java.util.Classifier.Kind;
+
+/*
+ * Режим --dedup: повторная запись не пишется в выходной файл, если такая уже
+ * была в этой категории. Для каждой категории - хеш-таблица с открытой
+ * адресацией из 64-битных отпечатков записей и ссылок на сами записи, а
+ * записи лежат подряд в общей области. Совпадение отпечатка проверяется
+ * сравнением байтов, так что разные записи с одинаковым отпечатком не
+ * теряются. Таблицы и записи хранятся вне кучи (direct-буферы), пока их
+ * объём не дойдёт до limit; дальше память под них отображается из
+ * временного файла в выходном каталоге, и вытеснять её на диск будет ОС.
+ * Области файла, которые занимала таблица до роста, идут под новые сегменты
+ * и записи. Удвоенная таблица в них целиком не помещается, поэтому файл
+ * всё же больше живых данных: у больших таблиц (из сегментов по 64 МБ)
+ * примерно в полтора раза, у маленьких - до двух раз. limit не больше {@link #maxLimit()}, иначе direct-память
+ * кончилась бы раньше, чем дошло бы до файла.
+ * Таблица разбита на сегменты, поэтому её размер не ограничен 2 ГБ буфера.
+ * Записи до INLINE байт (короткие числа) хранятся прямо в ссылке: так для
+ * них не нужна общая область и лишнее обращение к памяти при сравнении
+ */
+final class Dedup implements Ingest.Handler {
+
+	private static final int SLOT = 16;
+	private static final int SEGMENT_BITS = 22;
+	private static final int INITIAL_SLOTS = 1 << 10;
+	private static final int CHUNK = 1024 * 1024;
+	private static final int INLINE = 7;
+	// у ссылки на запись в самой ссылке старший бит установлен, дальше длина и байты
+	private static final long INLINED = 1L << 63;
+
+	private final Ingest.Handler next;
+	private final Path spillDir;
+	private final String spillPrefix;
+	private final long limit;
+	private final Table[] tables;
+	private final long[] duplicates;
+	// записи: длина (int) и байты
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	private ByteBuffer chunk;
+	private long used = 0;
+	private FileChannel spill;
+	private long spillSize = 0;
+	// свободные области временного файла: начало -> длина, соседние слиты
+	private final TreeMap<Long, Long> spillFree = new TreeMap<>();
+	// начала областей файла у сегментов таблиц, чтобы вернуть их при росте
+	private final Map<ByteBuffer, Long> spillRegions = new IdentityHashMap<>();
+	private boolean spillFailed = false;
+	// дробные, в которых ',' заменена на '.', как в выходном файле
+	private ByteBuffer scratch = ByteBuffer.allocate(256);
+
+	/**
+	 * @param categories сколько категорий {@link Categories} кроме чисел и строк
+	 * @param limit      сколько байт держать вне кучи до перехода на временный файл
+	 * @param spillDir   каталог для временного файла
+	 */
+	Dedup(Ingest.Handler next, int categories, long limit, Path spillDir, String spillPrefix) {
+		this.next = next;
+		this.limit = limit;
+		this.spillDir = spillDir;
+		this.spillPrefix = spillPrefix;
+		this.tables = new Table[Engine.CUSTOM + categories];
+		this.duplicates = new long[tables.length];
+	}
+
+	/**
+	 * Сколько direct-памяти можно отдать под поиск повторов: три четверти
+	 * -XX:MaxDirectMemorySize (по умолчанию он равен -Xmx), остальное -
+	 * буферам выходных файлов.
+	 */
+	static long maxLimit() {
+		long max = Runtime.getRuntime().maxMemory();
+		try {
+			long option = Long.parseLong(ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class)
+					.getVMOption("MaxDirectMemorySize").getValue());
+			if (option > 0)
+				max = option;
+		} catch (RuntimeException e) {
+			// не HotSpot - остаётся -Xmx
+		}
+		return max / 4 * 3;
+	}
+
+	/** Сколько повторов пропущено в категории с номером как у {@link Engine}. */
+	long duplicates(int category) {
+		return duplicates[category];
+	}
+
+	@Override
+	public void accept(Kind kind, String value) {
+		// как и из буфера, дробные сравниваются в виде с '.'
+		String key = kind == Kind.FLOAT ? value.replace(',', '.') : value;
+		if (add(Engine.index(kind), key))
+			next.accept(kind, value);
+	}
+
+	@Override
+	public void accept(Kind kind, ByteBuffer source, int start, int end) {
+		boolean added;
+		if (kind == Kind.FLOAT) {
+			ByteBuffer normalized = decimal(source, start, end);
+			added = add(Engine.FLOATS, normalized, 0, end - start);
+		} else {
+			added = add(Engine.index(kind), source, start, end);
+		}
+		if (added)
+			next.accept(kind, source, start, end);
+	}
+
+	@Override
+	public void accept(int category, String value) {
+		if (add(Engine.CUSTOM + category, value))
+			next.accept(category, value);
+	}
+
+	@Override
+	public void accept(int category, ByteBuffer source, int start, int end) {
+		if (add(Engine.CUSTOM + category, source, start, end))
+			next.accept(category, source, start, end);
+	}
+
+	@Override
+	public void reject(Ingest.Rejected line) {
+		next.reject(line);
+	}
+
+	private boolean add(int category, String value) {
+		byte[] bytes = value.getBytes(Util.encoding);
+		return add(category, ByteBuffer.wrap(bytes), 0, bytes.length);
+	}
+
+	/** false - такая запись в категории уже была. */
+	boolean add(int category, ByteBuffer buf, int start, int end) {
+		Table table = tables[category];
+		if (table == null)
+			table = tables[category] = new Table(INITIAL_SLOTS);
+		long hash = fingerprint(buf, start, end);
+		long slot = hash & table.mask;
+		while (true) {
+			long stored = table.fingerprint(slot);
+			if (stored == 0)
+				break;
+			if (stored == hash && same(table.ref(slot), buf, start, end)) {
+				duplicates[category]++;
+				return false;
+			}
+			slot = (slot + 1) & table.mask;
+		}
+		table.set(slot, hash, store(buf, start, end));
+		if (++table.size > table.slots / 2)
+			tables[category] = grow(table);
+		return true;
+	}
+
+	private ByteBuffer decimal(ByteBuffer source, int start, int end) {
+		int len = end - start;
+		if (scratch.capacity() < len)
+			scratch = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, len));
+		scratch.put(0, source, start, len);
+		for (int i = 0; i < len; i++) {
+			if (scratch.get(i) == ',')
+				scratch.put(i, (byte) '.');
+		}
+		return scratch;
+	}
+
+	/** 64-битный отпечаток байтов [start, end); 0 не бывает, это пустая ячейка. */
+	static long fingerprint(ByteBuffer buf, int start, int end) {
+		long h = 0x9e3779b97f4a7c15L ^ (end - start);
+		int i = start;
+		for (; i + 8 <= end; i += 8)
+			h = Long.rotateLeft(h ^ buf.getLong(i) * 0x87c37b91114253d5L, 31) * 0x4cf5ad432745937fL;
+		for (; i < end; i++)
+			h = (h ^ (buf.get(i) & 0xff)) * 0x100000001b3L;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+
+	private boolean same(long ref, ByteBuffer buf, int start, int end) {
+		if (ref < 0)
+			return end - start <= INLINE && ref == inline(buf, start, end);
+		ByteBuffer stored = chunks.get((int) (ref >>> 32));
+		int offset = (int) ref;
+		int len = stored.getInt(offset);
+		if (len != end - start)
+			return false;
+		int from = offset + 4;
+		int i = 0;
+		for (; i + 8 <= len; i += 8) {
+			if (stored.getLong(from + i) != buf.getLong(start + i))
+				return false;
+		}
+		for (; i < len; i++) {
+			if (stored.get(from + i) != buf.get(start + i))
+				return false;
+		}
+		return true;
+	}
+
+	private static long inline(ByteBuffer buf, int start, int end) {
+		long ref = INLINED | (long) (end - start) << 56;
+		for (int i = start; i < end; i++)
+			ref |= (long) (buf.get(i) & 0xff) << (8 * (i - start));
+		return ref;
+	}
+
+	private long store(ByteBuffer buf, int start, int end) {
+		int len = end - start;
+		if (len <= INLINE)
+			return inline(buf, start, end);
+		if (chunk == null || chunk.remaining() < 4 + len) {
+			chunk = allocate(Math.max(CHUNK, 4 + len));
+			chunks.add(chunk);
+		}
+		long ref = (long) (chunks.size() - 1) << 32 | chunk.position();
+		chunk.putInt(len);
+		chunk.put(chunk.position(), buf, start, len);
+		chunk.position(chunk.position() + len);
+		return ref;
+	}
+
+	private Table grow(Table table) {
+		Table grown = new Table(table.slots * 2);
+		for (long slot = 0; slot < table.slots; slot++) {
+			long hash = table.fingerprint(slot);
+			if (hash == 0)
+				continue;
+			long to = hash & grown.mask;
+			while (grown.fingerprint(to) != 0)
+				to = (to + 1) & grown.mask;
+			grown.set(to, hash, table.ref(slot));
+		}
+		grown.size = table.size;
+		table.release();
+		return grown;
+	}
+
+	private ByteBuffer allocate(int size) {
+		if (used + size <= limit || spillFailed) {
+			used += size;
+			return ByteBuffer.allocateDirect(size);
+		}
+		try {
+			if (spill == null) {
+				Path file = Files.createTempFile(spillDir, spillPrefix, ".dedup");
+				spill = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+						StandardOpenOption.DELETE_ON_CLOSE);
+				System.out.println("Память для поиска повторов (" + limit / (1024 * 1024)
+						+ " МБ) закончилась, дальше они хранятся во временном файле в " + spillDir + ".");
+			}
+			Long reused = takeFree(size);
+			long at = reused == null ? spillSize : reused;
+			ByteBuffer mapped = spill.map(FileChannel.MapMode.READ_WRITE, at, size);
+			if (reused == null) {
+				spillSize += size;
+			} else {
+				// новый файл заполнен нулями, а пустая ячейка таблицы - это 0
+				for (int i = 0; i + 8 <= size; i += 8)
+					mapped.putLong(i, 0);
+				for (int i = size & ~7; i < size; i++)
+					mapped.put(i, (byte) 0);
+			}
+			spillRegions.put(mapped, at);
+			return mapped;
+		} catch (IOException e) {
+			System.err.println("Не удалось создать временный файл для поиска повторов в " + spillDir
+					+ ", память под них больше не ограничивается");
+			spillFailed = true;
+			return allocate(size);
+		}
+	}
+
+	// первая подходящая свободная область, остаток остаётся свободным
+	private Long takeFree(int size) {
+		for (Map.Entry<Long, Long> free : spillFree.entrySet()) {
+			if (free.getValue() < size)
+				continue;
+			long at = free.getKey();
+			spillFree.remove(at);
+			if (free.getValue() > size)
+				spillFree.put(at + size, free.getValue() - size);
+			return at;
+		}
+		return null;
+	}
+
+	private void release(ByteBuffer segment) {
+		Long at = spillRegions.remove(segment);
+		if (at == null)
+			return;
+		long start = at;
+		long length = segment.capacity();
+		Map.Entry<Long, Long> before = spillFree.floorEntry(start);
+		if (before != null && before.getKey() + before.getValue() == start) {
+			start = before.getKey();
+			length += before.getValue();
+		}
+		Long after = spillFree.remove(at + segment.capacity());
+		if (after != null)
+			length += after;
+		spillFree.put(start, length);
+	}
+
+	/** Удаляет временный файл; после этого записи принимать нельзя. */
+	void close() {
+		if (spill == null)
+			return;
+		try {
+			spill.close();
+		} catch (IOException e) {
+			System.err.println("Не удалось удалить временный файл поиска повторов в " + spillDir);
+		}
+	}
+
+	// ячейки по SLOT байт: отпечаток и ссылка на запись
+	private final class Table {
+		final long slots;
+		final long mask;
+		final ByteBuffer[] segments;
+		final int segmentMask;
+		// сколько из сегментов занято в счёт limit, а не во временном файле
+		final long inMemory;
+		long size = 0;
+
+		Table(long slots) {
+			this.slots = slots;
+			this.mask = slots - 1;
+			int segmentSlots = (int) Math.min(slots, 1L << SEGMENT_BITS);
+			this.segmentMask = segmentSlots - 1;
+			this.segments = new ByteBuffer[(int) (slots / segmentSlots)];
+			long before = used;
+			for (int i = 0; i < segments.length; i++)
+				segments[i] = allocate(segmentSlots * SLOT);
+			this.inMemory = used - before;
+		}
+
+		long fingerprint(long slot) {
+			return segments[(int) (slot >>> SEGMENT_BITS)].getLong((int) (slot & segmentMask) * SLOT);
+		}
+
+		long ref(long slot) {
+			return segments[(int) (slot >>> SEGMENT_BITS)].getLong((int) (slot & segmentMask) * SLOT + 8);
+		}
+
+		void set(long slot, long hash, long ref) {
+			ByteBuffer segment = segments[(int) (slot >>> SEGMENT_BITS)];
+			int at = (int) (slot & segmentMask) * SLOT;
+			segment.putLong(at, hash);
+			segment.putLong(at + 8, ref);
+		}
+
+		// память direct-буферов вернёт сборщик мусора, а в счёт limit она больше не входит
+		void release() {
+			used -= inMemory;
+			for (ByteBuffer segment : segments)
+				Dedup.this.release(segment);
+		}
+	}
+}
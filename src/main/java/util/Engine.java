@@ -0,0 +1,296 @@
+package main.java.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+import main.java.util.Classifier.Kind;
+
+/**
+ * Классификация записей для встраивания в свои программы, без запуска
+ * утилиты. Движок потокобезопасен: каждый поток открывает свой
+ * {@link Session} и передаёт в него данные пачками, а записи уходят в
+ * {@link Sink}. Пачки - это байты UTF-8 или текст с записями через перевод
+ * строки; строка может продолжаться в следующей пачке. Разбор тот же, что
+ * при чтении файлов утилитой: строки ищутся и классифицируются прямо в
+ * переданном буфере, буферы сеанса переиспользуются, и на запись ничего не
+ * выделяется (кроме строк с некорректным UTF-8 и статистики по очень
+ * большим числам).
+ *
+ * <pre>{@code
+ * Engine engine = new Engine(Categories.of(List.of("date")), true, false);
+ * Sinks.Memory sink = Sinks.memory();
+ * try (Engine.Session session = engine.open(sink)) {
+ *     session.push("1\n2,5\n2024-01-0");
+ *     session.push("2\nтекст\n");
+ * }
+ * sink.get(Engine.FLOATS); // [2.5]
+ * }</pre>
+ */
+public final class Engine {
+
+	public static final int INTEGERS = 0;
+	public static final int FLOATS = 1;
+	public static final int STRINGS = 2;
+	/** Номер первой категории из {@link Categories}. */
+	public static final int CUSTOM = 3;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Categories categories;
+	// статистика закрытых сеансов; null - не считается
+	private final Stats.Summary summary;
+
+	public Engine() {
+		this(null, false, false);
+	}
+
+	/**
+	 * @param categories категории для записей, которые не числа (null - нет)
+	 * @param statistics считать статистику, как с -f
+	 * @param sketches   добавить к статистике квантили и оценки различных значений
+	 */
+	public Engine(Categories categories, boolean statistics, boolean sketches) {
+		this.categories = categories;
+		this.summary = statistics ? new Stats.Summary(sketches, categories == null ? new String[0] : categories.names())
+				: null;
+	}
+
+	/** Имена категорий по номерам, которые получает {@link Sink}. */
+	public List<String> categoryNames() {
+		List<String> names = new ArrayList<>(List.of("integers", "floats", "strings"));
+		if (categories != null)
+			names.addAll(List.of(categories.names()));
+		return names;
+	}
+
+	/** Сеанс для одного потока; sink не закрывается вместе с ним. */
+	public Session open(Sink sink) {
+		return new Session(sink);
+	}
+
+	/** Статистика по закрытым сеансам (копия); null, если она не считается. */
+	public Stats.Summary summary() {
+		if (summary == null)
+			return null;
+		synchronized (summary) {
+			Stats.Summary copy = summary.empty();
+			copy.merge(summary);
+			return copy;
+		}
+	}
+
+	/**
+	 * Поток записей одного источника. Не потокобезопасен; после
+	 * {@link #close()} последняя строка без перевода строки тоже передаётся
+	 * в sink, а статистика сеанса добавляется к статистике движка.
+	 */
+	public final class Session implements AutoCloseable {
+		private final Stats.Summary partial;
+		private final Pushing handler;
+		private final CharsetEncoder encoder = Util.encoding.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final ByteBuffer encoded = ByteBuffer.allocate(BUFFER_SIZE);
+		// начало строки, которая продолжится в следующей пачке
+		private ByteBuffer carry = ByteBuffer.allocate(BUFFER_SIZE);
+		// старший суррогат в конце текстовой пачки, младший - в следующей (0 - нет)
+		private char highSurrogate = 0;
+		private boolean closed = false;
+
+		private Session(Sink sink) {
+			this.partial = summary == null ? null : summary.empty();
+			this.handler = new Pushing(sink, partial);
+		}
+
+		/** Передаёт байты UTF-8 от position до limit; position сдвигается на limit. */
+		public void push(ByteBuffer batch) {
+			if (closed)
+				throw new IllegalStateException("Сеанс закрыт");
+			finishText();
+			pushBytes(batch);
+		}
+
+		private void pushBytes(ByteBuffer batch) {
+			ByteBuffer data = batch.slice();
+			int limit = data.limit();
+			int from = 0;
+			if (carry.position() > 0) {
+				// строка из прошлой пачки дописывается до первого '\n' и разбирается отдельно
+				from = indexOf(data, (byte) '\n', 0, limit) + 1;
+				if (from == 0)
+					from = limit;
+				append(data, 0, from);
+				scanCarry(false);
+			}
+			if (from < limit) {
+				ByteBuffer rest = data.slice(from, limit - from);
+				int consumed = MappedReader.scan(rest, rest.limit(), false, categories, null, handler);
+				append(rest, consumed, rest.limit());
+			}
+			batch.position(batch.limit());
+		}
+
+		/**
+		 * Передаёт текст; кодируется в UTF-8 в буфер сеанса. Суррогатная пара
+		 * может быть разделена между пачками.
+		 */
+		public void push(CharSequence batch) {
+			if (closed)
+				throw new IllegalStateException("Сеанс закрыт");
+			CharBuffer chars;
+			if (highSurrogate != 0) {
+				chars = CharBuffer.allocate(batch.length() + 1).put(highSurrogate).append(batch).flip();
+				highSurrogate = 0;
+			} else {
+				chars = CharBuffer.wrap(batch);
+			}
+			while (encoder.encode(chars, encoded, false).isOverflow())
+				pushEncoded();
+			// без конца ввода кодировщик оставляет только старший суррогат
+			if (chars.hasRemaining())
+				highSurrogate = chars.get();
+			pushEncoded();
+		}
+
+		// старший суррогат без пары заменяется, как и при кодировании целиком
+		private void finishText() {
+			if (highSurrogate == 0)
+				return;
+			CharBuffer chars = CharBuffer.wrap(new char[] { highSurrogate });
+			highSurrogate = 0;
+			while (encoder.encode(chars, encoded, true).isOverflow())
+				pushEncoded();
+			while (encoder.flush(encoded).isOverflow())
+				pushEncoded();
+			encoder.reset();
+			pushEncoded();
+		}
+
+		private void pushEncoded() {
+			pushBytes(encoded.flip());
+			encoded.clear();
+		}
+
+		@Override
+		public void close() {
+			if (closed)
+				return;
+			finishText();
+			closed = true;
+			if (carry.position() > 0)
+				scanCarry(true);
+			if (partial != null) {
+				synchronized (summary) {
+					summary.merge(partial);
+				}
+			}
+		}
+
+		private void scanCarry(boolean atEnd) {
+			carry.flip();
+			int consumed = MappedReader.scan(carry, carry.limit(), atEnd, categories, null, handler);
+			carry.position(consumed);
+			carry.compact();
+		}
+
+		private void append(ByteBuffer src, int from, int to) {
+			int len = to - from;
+			if (len > carry.remaining()) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(carry.capacity() * 2, carry.position() + len));
+				grown.put(carry.flip());
+				carry = grown;
+			}
+			carry.put(carry.position(), src, from, len);
+			carry.position(carry.position() + len);
+		}
+	}
+
+	private static int indexOf(ByteBuffer buf, byte b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (buf.get(i) == b)
+				return i;
+		}
+		return -1;
+	}
+
+	/** Номер категории для Sink. */
+	static int index(Kind kind) {
+		return switch (kind) {
+			case INTEGER -> INTEGERS;
+			case FLOAT -> FLOATS;
+			default -> STRINGS;
+		};
+	}
+
+	// записи от MappedReader.scan - в статистику сеанса и в sink
+	private static final class Pushing implements Ingest.Handler {
+		private final Sink sink;
+		private final Stats.Summary summary;
+		// дробные с ',' и строки, которые пришли уже декодированными
+		private ByteBuffer scratch = ByteBuffer.allocate(256);
+
+		Pushing(Sink sink, Stats.Summary summary) {
+			this.sink = sink;
+			this.summary = summary;
+		}
+
+		@Override
+		public void accept(Kind kind, String value) {
+			if (summary != null)
+				summary.add(kind, value);
+			push(index(kind), value);
+		}
+
+		@Override
+		public void accept(Kind kind, ByteBuffer source, int start, int end) {
+			if (summary != null)
+				summary.add(kind, source, start, end);
+			if (kind == Kind.FLOAT && indexOf(source, (byte) ',', start, end) >= 0) {
+				ByteBuffer copy = scratch(end - start);
+				copy.put(0, source, start, end - start);
+				for (int i = 0; i < end - start; i++) {
+					if (copy.get(i) == ',')
+						copy.put(i, (byte) '.');
+				}
+				sink.accept(FLOATS, copy, 0, end - start);
+				return;
+			}
+			sink.accept(index(kind), source, start, end);
+		}
+
+		@Override
+		public void accept(int category, String value) {
+			if (summary != null)
+				summary.add(category, value);
+			push(CUSTOM + category, value);
+		}
+
+		@Override
+		public void accept(int category, ByteBuffer source, int start, int end) {
+			if (summary != null)
+				summary.add(category, source, start, end);
+			sink.accept(CUSTOM + category, source, start, end);
+		}
+
+		// scan без Origin строки с ошибками не выделяет
+		@Override
+		public void reject(Ingest.Rejected line) {
+		}
+
+		private void push(int category, String value) {
+			byte[] bytes = value.getBytes(Util.encoding);
+			ByteBuffer copy = scratch(bytes.length);
+			copy.put(0, bytes);
+			sink.accept(category, copy, 0, bytes.length);
+		}
+
+		private ByteBuffer scratch(int size) {
+			if (scratch.capacity() < size)
+				scratch = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, size));
+			return scratch;
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package main.java.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+import main.java.util.Classifier.Kind;
+
+/*
+ * Внешняя сортировка слиянием выходного файла. Файл читается кусками, которые
+ * помещаются в заданный объём памяти; каждый кусок сортируется и сбрасывается
+ * во временный файл рядом с исходным, затем куски сливаются (не больше
+ * MAX_RUNS за проход) и результат заменяет исходный файл.
+ * Файлы читаются как ISO-8859-1: байты переносятся без изменений, даже если
+ * в строках некорректный UTF-8, а сравнение таких строк совпадает с порядком
+ * байтов UTF-8, то есть с порядком кодовых точек Unicode.
+ * Сортировка устойчива: равные значения (1.0 и 1.00) сохраняют исходный порядок
+ */
+final class ExternalSort<K> {
+
+	private static final Charset bytes = StandardCharsets.ISO_8859_1;
+	private static final String newLine = System.lineSeparator();
+	private static final int MAX_RUNS = 64;
+	private static final int READ_BUFFER = 64 * 1024;
+	// размер блока gzip при записи отсортированного файла
+	private static final int BLOCK = 1024 * 1024;
+	// приблизительный размер String с массивом, ссылки в списке и записи Entry
+	private static final int LINE_OVERHEAD = 96;
+
+	private record Entry<K>(String line, K key) {}
+
+	private final Function<String, K> key;
+	private final Comparator<K> order;
+	private final int keyOverhead;
+	private final long memory;
+	private final Compression gzip;
+
+	private ExternalSort(Function<String, K> key, Comparator<K> order, int keyOverhead, long memory,
+			Compression gzip) {
+		this.key = key;
+		this.order = order;
+		this.keyOverhead = keyOverhead;
+		this.memory = memory;
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Сортирует файл категории kind: целые и дробные числа по значению, строки
+	 * лексикографически.
+	 *
+	 * @param memory сколько байт кучи можно занять под один кусок
+	 * @param gzip   файл сжат gzip, отсортированный результат сжимается в этом
+	 *               пуле (null - файл не сжат); временные куски не сжимаются
+	 */
+	static void sort(Path file, Kind kind, long memory, Compression gzip) throws IOException {
+		switch (kind) {
+			case INTEGER:
+				new ExternalSort<String>(line -> line, Stats::compareIntStr, 0, memory, gzip).sort(file);
+				break;
+			case FLOAT:
+				// дробными классификатор считает и "-" или "e5": такие строки идут первыми
+				new ExternalSort<BigDecimal>(ExternalSort::decimal,
+						Comparator.nullsFirst(Comparator.<BigDecimal>naturalOrder()), 64, memory, gzip).sort(file);
+				break;
+			default:
+				new ExternalSort<String>(line -> line, Comparator.<String>naturalOrder(), 0, memory, gzip).sort(file);
+		}
+	}
+
+	private static BigDecimal decimal(String line) {
+		try {
+			return new BigDecimal(line);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private void sort(Path file) throws IOException {
+		Path dir = file.toAbsolutePath().getParent();
+		String prefix = "." + file.getFileName() + ".";
+		List<Path> runs = new ArrayList<>();
+		// не createTempFile: у итогового файла должны быть обычные права, а не 600
+		Path sorted = dir.resolve(prefix + "sorted");
+		try {
+			try (BufferedReader reader = gzip == null ? Files.newBufferedReader(file, bytes)
+					: new BufferedReader(new InputStreamReader(Compression.openGzip(file), bytes), READ_BUFFER)) {
+				List<Entry<K>> chunk = new ArrayList<>();
+				long used = 0;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					chunk.add(new Entry<>(line, key.apply(line)));
+					used += line.length() + LINE_OVERHEAD + keyOverhead;
+					if (used >= memory) {
+						runs.add(spill(chunk, Files.createTempFile(dir, prefix, ".run"), null));
+						chunk.clear();
+						used = 0;
+					}
+				}
+				if (runs.isEmpty()) {
+					// всё поместилось в память: временные файлы не нужны
+					replace(file, spill(chunk, sorted, gzip));
+					return;
+				}
+				if (!chunk.isEmpty())
+					runs.add(spill(chunk, Files.createTempFile(dir, prefix, ".run"), null));
+			}
+
+			while (runs.size() > MAX_RUNS) {
+				List<Path> merged = new ArrayList<>();
+				for (int i = 0; i < runs.size(); i += MAX_RUNS) {
+					List<Path> group = runs.subList(i, Math.min(i + MAX_RUNS, runs.size()));
+					merged.add(merge(group, Files.createTempFile(dir, prefix, ".run"), null));
+					for (Path run : group)
+						Files.delete(run);
+				}
+				runs = merged;
+			}
+			replace(file, merge(runs, sorted, gzip));
+		} finally {
+			Files.deleteIfExists(sorted);
+			for (Path run : runs)
+				Files.deleteIfExists(run);
+		}
+	}
+
+	private static BufferedWriter writer(Path target, Compression gzip) throws IOException {
+		if (gzip == null)
+			return Files.newBufferedWriter(target, bytes);
+		return new BufferedWriter(new OutputStreamWriter(gzip.blocks(Files.newOutputStream(target), BLOCK), bytes));
+	}
+
+	private Path spill(List<Entry<K>> chunk, Path target, Compression gzip) throws IOException {
+		chunk.sort((a, b) -> order.compare(a.key(), b.key()));
+		try (BufferedWriter writer = writer(target, gzip)) {
+			for (Entry<K> entry : chunk) {
+				writer.write(entry.line());
+				writer.write(newLine);
+			}
+		}
+		return target;
+	}
+
+	private final class Cursor {
+		final BufferedReader reader;
+		final int run;
+		Entry<K> current;
+
+		Cursor(BufferedReader reader, int run) {
+			this.reader = reader;
+			this.run = run;
+		}
+
+		boolean advance() throws IOException {
+			String line = reader.readLine();
+			current = line == null ? null : new Entry<>(line, key.apply(line));
+			return current != null;
+		}
+	}
+
+	private Path merge(List<Path> runs, Path target, Compression gzip) throws IOException {
+		// при равных ключах раньше идёт более ранний кусок, так слияние остаётся устойчивым
+		PriorityQueue<Cursor> heap = new PriorityQueue<>(runs.size(), (a, b) -> {
+			int cmp = order.compare(a.current.key(), b.current.key());
+			return cmp != 0 ? cmp : Integer.compare(a.run, b.run);
+		});
+		List<BufferedReader> readers = new ArrayList<>();
+		try (BufferedWriter writer = writer(target, gzip)) {
+			for (int i = 0; i < runs.size(); i++) {
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(Files.newInputStream(runs.get(i)), bytes), READ_BUFFER);
+				readers.add(reader);
+				Cursor cursor = new Cursor(reader, i);
+				if (cursor.advance())
+					heap.add(cursor);
+			}
+			while (!heap.isEmpty()) {
+				Cursor cursor = heap.poll();
+				writer.write(cursor.current.line());
+				writer.write(newLine);
+				if (cursor.advance())
+					heap.add(cursor);
+			}
+		} finally {
+			for (BufferedReader reader : readers)
+				reader.close();
+		}
+		return target;
+	}
+
+	private static void replace(Path file, Path sorted) throws IOException {
+		Files.move(sorted, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -0,0 +1,787 @@
+package main.java.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import main.java.util.Classifier.Kind;
+
+/*
+ * Чтение и классификация входных файлов. В параллельном режиме каждый файл
+ * читается в своей задаче и отдаёт записи пачками в собственную очередь, а
+ * вызывающий поток разбирает очереди строго в порядке перечисления файлов.
+ * Файлы больше rangeSize байт режутся на куски по границам строк ('\n' в
+ * UTF-8 не встречается внутри многобайтных символов), и каждый кусок
+ * становится отдельной задачей. Вперёд запускается не больше window задач,
+ * а очереди ограничены, так что память не зависит от размера входных данных.
+ */
+final class Ingest {
+
+	interface Handler {
+		void accept(Kind kind, String value);
+
+		/** Запись в виде байтов UTF-8 [start, end) из буфера; числа уже обрезаны. */
+		void accept(Kind kind, ByteBuffer source, int start, int end);
+
+		/** Запись категории с номером category в {@link Categories}; уже обрезана. */
+		void accept(int category, String value);
+
+		void accept(int category, ByteBuffer source, int start, int end);
+
+		/**
+		 * Строка с ошибкой. В режиме --reject она дальше не передаётся, иначе
+		 * (кроме нечитаемых участков) следом приходит обычной записью.
+		 */
+		void reject(Rejected line);
+	}
+
+	/**
+	 * Строка с ошибкой: смещение её начала в байтах (у сжатых - в распакованных
+	 * данных, -1 - неизвестно), причина и исходные байты без перевода строки.
+	 */
+	record Rejected(String filename, long offset, String reason, byte[] bytes) {
+		static final String BAD_UTF8 = "некорректный UTF-8";
+		static final String NO_DIGITS = "число без цифр";
+	}
+
+	/** Имя входного файла, вместо которого читается stdin. */
+	static final String STDIN = "-";
+
+	static final int BATCH_SIZE = 1024;
+	static final int QUEUE_CAPACITY = 4;
+
+	private static final class Batch implements Handler {
+		// null - запись категории из categories
+		final Kind[] kinds = new Kind[BATCH_SIZE];
+		final int[] categories = new int[BATCH_SIZE];
+		final String[] values = new String[BATCH_SIZE];
+		final ByteBuffer[] sources = new ByteBuffer[BATCH_SIZE];
+		final int[] starts = new int[BATCH_SIZE];
+		final int[] ends = new int[BATCH_SIZE];
+		// строки с ошибками, место под них - только если они есть
+		Rejected[] rejected;
+		int size = 0;
+		boolean last = false;
+		boolean failed = false;
+		// у последней пачки куска - статистика по всему куску
+		Stats.Summary summary;
+
+		boolean isFull() {
+			return size == BATCH_SIZE;
+		}
+
+		@Override
+		public void accept(Kind kind, String value) {
+			kinds[size] = kind;
+			values[size] = value;
+			size++;
+		}
+
+		@Override
+		public void accept(Kind kind, ByteBuffer source, int start, int end) {
+			kinds[size] = kind;
+			sources[size] = source;
+			starts[size] = start;
+			ends[size] = end;
+			size++;
+		}
+
+		@Override
+		public void accept(int category, String value) {
+			categories[size] = category;
+			accept((Kind) null, value);
+		}
+
+		@Override
+		public void accept(int category, ByteBuffer source, int start, int end) {
+			categories[size] = category;
+			accept((Kind) null, source, start, end);
+		}
+
+		@Override
+		public void reject(Rejected line) {
+			if (rejected == null)
+				rejected = new Rejected[BATCH_SIZE];
+			rejected[size++] = line;
+		}
+
+		void replay(Handler handler) {
+			for (int i = 0; i < size; i++) {
+				if (rejected != null && rejected[i] != null) {
+					handler.reject(rejected[i]);
+				} else if (kinds[i] == null) {
+					if (sources[i] == null)
+						handler.accept(categories[i], values[i]);
+					else
+						handler.accept(categories[i], sources[i], starts[i], ends[i]);
+				} else if (sources[i] == null) {
+					handler.accept(kinds[i], values[i]);
+				} else {
+					handler.accept(kinds[i], sources[i], starts[i], ends[i]);
+				}
+			}
+		}
+	}
+
+	// учитывает записи в статистике и передаёт их дальше
+	private static final class Counting implements Handler {
+		private final Stats.Summary summary;
+		private final Handler next;
+		private final Metrics metrics;
+		private int records = 0;
+
+		Counting(Stats.Summary summary, Handler next, Metrics metrics) {
+			this.summary = summary;
+			this.next = next;
+			this.metrics = metrics;
+		}
+
+		// время статистики замеряется у каждой Metrics.SAMPLE-й записи
+		private boolean sample() {
+			return metrics != null && (++records & Metrics.SAMPLE_MASK) == 0;
+		}
+
+		@Override
+		public void accept(Kind kind, String value) {
+			if (sample()) {
+				long since = System.nanoTime();
+				summary.add(kind, value);
+				metrics.sampled(Metrics.Stage.STATS, System.nanoTime() - since);
+			} else {
+				summary.add(kind, value);
+			}
+			next.accept(kind, value);
+		}
+
+		@Override
+		public void accept(Kind kind, ByteBuffer source, int start, int end) {
+			if (sample()) {
+				long since = System.nanoTime();
+				summary.add(kind, source, start, end);
+				metrics.sampled(Metrics.Stage.STATS, System.nanoTime() - since);
+			} else {
+				summary.add(kind, source, start, end);
+			}
+			next.accept(kind, source, start, end);
+		}
+
+		@Override
+		public void accept(int category, String value) {
+			summary.add(category, value);
+			next.accept(category, value);
+		}
+
+		@Override
+		public void accept(int category, ByteBuffer source, int start, int end) {
+			summary.add(category, source, start, end);
+			next.accept(category, source, start, end);
+		}
+
+		@Override
+		public void reject(Rejected line) {
+			next.reject(line);
+		}
+	}
+
+	// считает записи куска файла для --metrics
+	private static final class Measured implements Handler {
+		private final Handler next;
+		long records = 0;
+
+		Measured(Handler next) {
+			this.next = next;
+		}
+
+		@Override
+		public void accept(Kind kind, String value) {
+			records++;
+			next.accept(kind, value);
+		}
+
+		@Override
+		public void accept(Kind kind, ByteBuffer source, int start, int end) {
+			records++;
+			next.accept(kind, source, start, end);
+		}
+
+		@Override
+		public void accept(int category, String value) {
+			records++;
+			next.accept(category, value);
+		}
+
+		@Override
+		public void accept(int category, ByteBuffer source, int start, int end) {
+			records++;
+			next.accept(category, source, start, end);
+		}
+
+		@Override
+		public void reject(Rejected line) {
+			next.reject(line);
+		}
+	}
+
+	/*
+	 * в параллельном режиме записи копятся в пачке и уходят в очередь, как
+	 * только пачка заполнится
+	 */
+	private static final class Batcher implements Handler {
+		private final BlockingQueue<Batch> queue;
+		Batch current = new Batch();
+
+		Batcher(BlockingQueue<Batch> queue) {
+			this.queue = queue;
+		}
+
+		@Override
+		public void accept(Kind kind, String value) {
+			current.accept(kind, value);
+			if (current.isFull())
+				next();
+		}
+
+		@Override
+		public void accept(Kind kind, ByteBuffer source, int start, int end) {
+			current.accept(kind, source, start, end);
+			if (current.isFull())
+				next();
+		}
+
+		@Override
+		public void accept(int category, String value) {
+			current.accept(category, value);
+			if (current.isFull())
+				next();
+		}
+
+		@Override
+		public void accept(int category, ByteBuffer source, int start, int end) {
+			current.accept(category, source, start, end);
+			if (current.isFull())
+				next();
+		}
+
+		@Override
+		public void reject(Rejected line) {
+			current.reject(line);
+			if (current.isFull())
+				next();
+		}
+
+		private void next() {
+			put(queue, current);
+			current = new Batch();
+		}
+	}
+
+	/**
+	 * Кусок файла [start, end); end < 0 - файл целиком; compressed - кусок из
+	 * целых членов gzip или кадров zstd.
+	 */
+	record Range(String filename, long start, long end, boolean compressed) {
+		Range(String filename, long start, long end) {
+			this(filename, start, end, false);
+		}
+	}
+
+	/** Вызывается по порядку файлов, когда все строки файла до end переданы дальше. */
+	interface Progress {
+		void processed(String filename, long end);
+	}
+
+	/**
+	 * Режим --resume: файлы читаются с отметок manifest и только до последнего
+	 * перевода строки (недописанная строка останется до следующего запуска),
+	 * кусками не больше checkpointSize, после каждого вызывается progress.
+	 */
+	record Resume(Manifest manifest, long checkpointSize, Progress progress) {
+	}
+
+	private record Unit(Range range, BlockingQueue<Batch> queue) {
+	}
+
+	private final boolean mapped;
+	private final Stats.Summary summary;
+	private final Resume resume;
+	private final Categories categories;
+	private final Metrics metrics;
+	private final boolean quarantine;
+
+	/**
+	 * @param mapped  читать файлы через {@link MappedReader}, не декодируя строки
+	 * @param summary куда добавлять статистику по прочитанным записям (null - не
+	 *                считать); в параллельном режиме её считают сами читающие потоки
+	 */
+	Ingest(boolean mapped, Stats.Summary summary) {
+		this(mapped, summary, null);
+	}
+
+	/** @param resume продолжать с отметок (null - читать файлы целиком) */
+	Ingest(boolean mapped, Stats.Summary summary, Resume resume) {
+		this(mapped, summary, resume, null);
+	}
+
+	/** @param categories категории для записей, которые не числа (null - нет) */
+	Ingest(boolean mapped, Stats.Summary summary, Resume resume, Categories categories) {
+		this(mapped, summary, resume, categories, null);
+	}
+
+	/** @param metrics куда добавлять показатели чтения (null - не считать) */
+	Ingest(boolean mapped, Stats.Summary summary, Resume resume, Categories categories, Metrics metrics) {
+		this(mapped, summary, resume, categories, metrics, false);
+	}
+
+	/**
+	 * @param quarantine строки с ошибками не передавать дальше как записи, а
+	 *                   только через {@link Handler#reject} (режим --reject)
+	 */
+	Ingest(boolean mapped, Stats.Summary summary, Resume resume, Categories categories, Metrics metrics,
+			boolean quarantine) {
+		this.mapped = mapped;
+		this.summary = summary;
+		this.resume = resume;
+		this.categories = categories;
+		this.metrics = metrics;
+		this.quarantine = quarantine;
+	}
+
+	private void readFile(String filename, Handler handler) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new FileReader(filename, Util.encoding))) {
+			readLines(reader, filename, handler);
+		}
+	}
+
+	private void readRange(Range range, Handler handler) throws IOException {
+		if (range.filename().equals(STDIN)) {
+			readStream(STDIN, stdin(), handler);
+			return;
+		}
+		if (range.end() < 0 && readCompressed(range.filename(), handler))
+			return;
+		if (range.compressed()) {
+			Path path = Path.of(range.filename());
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+					InputStream in = Compression.decompress(Compression.detect(path),
+							new RangeInputStream(channel, range.start(), range.end()))) {
+				readStream(range.filename(), in, handler);
+			}
+			return;
+		}
+		if (mapped) {
+			MappedReader.read(range.filename(), range.start(), range.end(), categories, metrics, quarantine, handler);
+			return;
+		}
+		if (range.end() < 0) {
+			readFile(range.filename(), handler);
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(Path.of(range.filename()), StandardOpenOption.READ);
+				BufferedReader reader = new BufferedReader(new InputStreamReader(
+						new RangeInputStream(channel, range.start(), range.end()), Util.encoding))) {
+			readLines(reader, range.filename(), handler);
+		}
+	}
+
+	/** stdin, в том числе сжатый gzip или zstd: сжатие распознаётся по первым байтам. */
+	private static InputStream stdin() throws IOException {
+		BufferedInputStream in = new BufferedInputStream(System.in, 64 * 1024);
+		byte[] magic = new byte[4];
+		in.mark(magic.length);
+		int n = in.readNBytes(magic, 0, magic.length);
+		in.reset();
+		Compression.Format format = Compression.detect(ByteBuffer.wrap(magic, 0, n));
+		return format == Compression.Format.PLAIN ? in : Compression.decompress(format, in);
+	}
+
+	/** Поток без разбивки на куски: с --mmap - байтами, как отображённый файл. */
+	private void readStream(String filename, InputStream in, Handler handler) throws IOException {
+		if (mapped)
+			MappedReader.read(in, filename, categories, metrics, quarantine, handler);
+		else
+			readLines(new BufferedReader(new InputStreamReader(in, Util.encoding)), filename, handler);
+	}
+
+	/**
+	 * Сжатые файлы читаются потоком целиком, без mmap и деления на куски.
+	 *
+	 * @return false, если файл не сжат
+	 */
+	private boolean readCompressed(String filename, Handler handler) throws IOException {
+		Path path = Path.of(filename);
+		Compression.Format format = Compression.detect(path);
+		if (format == Compression.Format.PLAIN)
+			return false;
+		try (InputStream in = Compression.decompress(format, Files.newInputStream(path))) {
+			readStream(filename, in, handler);
+		}
+		return true;
+	}
+
+	/*
+	 * некорректный UTF-8 декодер уже заменил на U+FFFD, поэтому с ошибкой
+	 * считается любая строка с этим символом; места строк здесь неизвестны
+	 */
+	private void readLines(BufferedReader reader, String filename, Handler handler) throws IOException {
+		String line;
+		int lines = 0;
+		while ((line = reader.readLine()) != null) {
+			if (line.isBlank())
+				continue;
+			boolean sample = metrics != null && (++lines & Metrics.SAMPLE_MASK) == 0;
+			long since = sample ? System.nanoTime() : 0;
+			Kind kind = Classifier.classify(line);
+			int category = kind == Kind.STRING && categories != null ? categories.match(line) : -1;
+			if (sample)
+				metrics.sampled(Metrics.Stage.CLASSIFY, System.nanoTime() - since);
+			if (kind == Kind.STRING && line.indexOf('\uFFFD') >= 0) {
+				handler.reject(new Rejected(filename, -1, Rejected.BAD_UTF8, line.getBytes(Util.encoding)));
+				if (quarantine)
+					continue;
+			}
+			if (category >= 0) {
+				handler.accept(category, line.trim());
+				continue;
+			}
+			switch (kind) {
+				case INTEGER:
+					handler.accept(kind, line.trim());
+					break;
+				case FLOAT:
+					String value = line.replace(",", ".").trim();
+					if (!Classifier.hasDigits(value, 0, value.length())) {
+						handler.reject(new Rejected(filename, -1, Rejected.NO_DIGITS, line.getBytes(Util.encoding)));
+						if (quarantine)
+							break;
+					}
+					handler.accept(kind, value);
+					break;
+				default:
+					handler.accept(kind, line);
+			}
+		}
+	}
+
+	void sequential(List<String> files, Handler handler) {
+		Handler counted = summary == null ? handler : new Counting(summary, handler, metrics);
+		for (String filename : files) {
+			if (filename.equals(STDIN)) {
+				piped(handler);
+				continue;
+			}
+			for (Range range : plan(filename, Long.MAX_VALUE)) {
+				try {
+					measured(range, counted);
+				} catch (IOException e) {
+					System.err.println("Ошибка при прочтении файла " + filename);
+					readFailed();
+					break;
+				}
+				processed(range);
+			}
+		}
+	}
+
+	/** Читает заданные куски по порядку: обработчик --workers. */
+	void ranges(List<Range> ranges, Handler handler) {
+		Handler counted = summary == null ? handler : new Counting(summary, handler, metrics);
+		for (Range range : ranges) {
+			try {
+				measured(range, counted);
+			} catch (IOException e) {
+				System.err.println("Ошибка при прочтении файла " + range.filename());
+			}
+		}
+	}
+
+	/*
+	 * stdin читается в отдельном потоке и отдаётся пачками через ограниченную
+	 * очередь: чтение и разбор идут, пока пишутся предыдущие пачки, а если
+	 * запись отстаёт (stdout медленного конвейера), чтение останавливается на
+	 * заполненной очереди, и данные не копятся в памяти
+	 */
+	private void piped(Handler handler) {
+		try (ExecutorService reader = Executors.newSingleThreadExecutor()) {
+			if (!collect(submit(reader, new Range(STDIN, 0, -1)), handler))
+				System.err.println("Ошибка при прочтении stdin");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.err.println("Чтение stdin было прервано");
+		}
+	}
+
+	private void measured(Range range, Handler handler) throws IOException {
+		if (metrics == null) {
+			readRange(range, handler);
+			return;
+		}
+		long since = System.nanoTime();
+		Measured measured = new Measured(handler);
+		readRange(range, measured);
+		// объём stdin неизвестен
+		long bytes = range.end() >= 0 ? range.end() - range.start()
+				: range.filename().equals(STDIN) ? 0 : Files.size(Path.of(range.filename()));
+		metrics.read(range.filename(), bytes, measured.records, System.nanoTime() - since);
+	}
+
+	private void readFailed() {
+		if (resume != null)
+			resume.manifest().readFailed();
+	}
+
+	private void processed(Range range) {
+		if (resume != null && range.end() >= 0)
+			resume.progress().processed(range.filename(), range.end());
+	}
+
+	void parallel(List<String> files, ExecutorService pool, int window, long rangeSize, Handler handler)
+			throws InterruptedException {
+		ArrayDeque<Unit> pending = new ArrayDeque<>();
+		ArrayDeque<Range> planned = new ArrayDeque<>();
+		Iterator<String> next = files.iterator();
+		String lastFailed = null;
+		// кусок с ошибкой: следующие куски того же файла, как и в sequential, не пишутся
+		Range failed = null;
+
+		while (true) {
+			while (pending.size() < window && (!planned.isEmpty() || next.hasNext())) {
+				if (planned.isEmpty())
+					planned.addAll(plan(next.next(), rangeSize));
+				if (!planned.isEmpty())
+					pending.add(submit(pool, planned.poll()));
+			}
+			if (pending.isEmpty())
+				break;
+
+			Unit unit = pending.poll();
+			String filename = unit.range().filename();
+			if (failed != null && follows(unit.range(), failed)) {
+				drain(unit);
+				continue;
+			}
+			failed = null;
+			boolean read = collect(unit, handler);
+			if (!read) {
+				readFailed();
+				failed = unit.range();
+				// ещё не отданные в пул куски этого файла не читаются вовсе
+				planned.removeIf(range -> follows(range, unit.range()));
+				if (!filename.equals(lastFailed)) {
+					System.err.println("Ошибка при прочтении файла " + filename);
+					lastFailed = filename;
+				}
+			}
+			// после ошибки отметки по файлу не сдвигаются, иначе непрочитанный кусок пропадёт
+			if (!filename.equals(lastFailed))
+				processed(unit.range());
+		}
+	}
+
+	/** Передаёт в handler все пачки куска по порядку; false - кусок прочитан с ошибкой. */
+	private boolean collect(Unit unit, Handler handler) throws InterruptedException {
+		Batch batch;
+		do {
+			batch = unit.queue().take();
+			batch.replay(handler);
+		} while (!batch.last);
+		if (batch.summary != null)
+			summary.merge(batch.summary);
+		return !batch.failed;
+	}
+
+	// следующий кусок того же файла, а не он же, указанный ещё раз
+	private static boolean follows(Range range, Range failed) {
+		return failed.end() >= 0 && range.filename().equals(failed.filename()) && range.start() >= failed.end();
+	}
+
+	/** Дожидается конца куска, ничего не передавая дальше. */
+	private static void drain(Unit unit) throws InterruptedException {
+		while (!unit.queue().take().last)
+			;
+	}
+
+	/*
+	 * каждая граница сдвигается вперёд до ближайшего '\n' включительно, поэтому
+	 * строки не разрываются, а "\r\n" всегда остаётся в одном куске
+	 */
+	private List<Range> plan(String filename, long rangeSize) {
+		if (filename.equals(STDIN))
+			return List.of(new Range(filename, 0, -1));
+		if (resume == null)
+			return split(filename, rangeSize);
+		Path path = Path.of(filename);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long start = resume.manifest().resumeOffset(filename);
+			long size = channel.size();
+			switch (Compression.detect(path)) {
+				case GZIP, ZSTD:
+					// дописанный файл продолжается новыми членами gzip или кадрами zstd с прежнего конца
+					return start == size ? List.of() : List.of(new Range(filename, start, size, true));
+				default:
+					ByteBuffer buf = ByteBuffer.allocate(8192);
+					long end = lastLineEnd(channel, start, size, buf);
+					return split(channel, filename, start, end, Math.min(rangeSize, resume.checkpointSize()), buf);
+			}
+		} catch (IOException e) {
+			// ошибку сообщит чтение файла целиком
+			return List.of(new Range(filename, 0, -1));
+		}
+	}
+
+	static List<Range> split(String filename, long rangeSize) {
+		try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size <= rangeSize || Compression.detect(Path.of(filename)) != Compression.Format.PLAIN)
+				return List.of(new Range(filename, 0, -1));
+			return split(channel, filename, 0, size, rangeSize, ByteBuffer.allocate(8192));
+		} catch (IOException e) {
+			// ошибку сообщит чтение файла целиком
+			return List.of(new Range(filename, 0, -1));
+		}
+	}
+
+	private static List<Range> split(FileChannel channel, String filename, long start, long size, long rangeSize,
+			ByteBuffer buf) throws IOException {
+		List<Range> ranges = new ArrayList<>();
+		while (start < size) {
+			long end = start + rangeSize;
+			if (end >= size || end < 0) {
+				end = size;
+			} else {
+				end = nextLineStart(channel, end - 1, size, buf);
+			}
+			ranges.add(new Range(filename, start, end));
+			start = end;
+		}
+		return ranges;
+	}
+
+	/** Позиция после последнего '\n' или '\r' в [start, size); start, если их нет. */
+	private static long lastLineEnd(FileChannel channel, long start, long size, ByteBuffer buf) throws IOException {
+		long pos = size;
+		while (pos > start) {
+			int n = (int) Math.min(buf.capacity(), pos - start);
+			buf.clear().limit(n);
+			while (buf.hasRemaining() && channel.read(buf, pos - n + buf.position()) > 0)
+				;
+			for (int i = buf.position() - 1; i >= 0; i--) {
+				byte b = buf.get(i);
+				if (b == '\n' || b == '\r')
+					return pos - n + i + 1;
+			}
+			pos -= n;
+		}
+		return start;
+	}
+
+	static long nextLineStart(FileChannel channel, long from, long size, ByteBuffer buf) throws IOException {
+		long pos = from;
+		while (pos < size) {
+			buf.clear();
+			int n = channel.read(buf, pos);
+			if (n <= 0)
+				break;
+			for (int i = 0; i < n; i++) {
+				if (buf.get(i) == '\n')
+					return pos + i + 1;
+			}
+			pos += n;
+		}
+		return size;
+	}
+
+	private Unit submit(ExecutorService pool, Range range) {
+		Unit unit = new Unit(range, new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+		pool.execute(() -> {
+			Stats.Summary partial = summary == null ? null : summary.empty();
+			Batcher batcher = new Batcher(unit.queue());
+			boolean failed = true;
+			try {
+				measured(range, partial == null ? batcher : new Counting(partial, batcher, metrics));
+				failed = false;
+			} catch (IOException e) {
+				// сообщит тот, кто разбирает пачки
+			} catch (RuntimeException e) {
+				System.err.println("Сбой при разборе файла " + range.filename() + ":");
+				e.printStackTrace();
+			} finally {
+				// и после Error (OutOfMemoryError на длинной строке): иначе collect ждал бы вечно
+				batcher.current.last = true;
+				batcher.current.failed = failed;
+				batcher.current.summary = partial;
+				put(unit.queue(), batcher.current);
+			}
+		});
+		return unit;
+	}
+
+	private static void put(BlockingQueue<Batch> queue, Batch batch) {
+		try {
+			queue.put(batch);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class RangeInputStream extends InputStream {
+		private final FileChannel channel;
+		private final ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+		private long position;
+		private final long end;
+
+		RangeInputStream(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.position = start;
+			this.end = end;
+			buf.flip();
+		}
+
+		private boolean fill() throws IOException {
+			if (buf.hasRemaining())
+				return true;
+			if (position >= end)
+				return false;
+			buf.clear();
+			buf.limit((int) Math.min(buf.capacity(), end - position));
+			int n = channel.read(buf, position);
+			buf.flip();
+			if (n <= 0)
+				return false;
+			position += n;
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return fill() ? buf.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!fill())
+				return -1;
+			int n = Math.min(len, buf.remaining());
+			buf.get(b, off, n);
+			return n;
+		}
+	}
+}
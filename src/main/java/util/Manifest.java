@@ -0,0 +1,230 @@
+package main.java.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32C;
+
+/*
+ * Отметки о том, что уже обработано, для режима --resume. Для каждого входного
+ * файла хранятся размер, время изменения, смещение, до которого строки уже
+ * записаны, и контрольные суммы первых и последних HASH_WINDOW байт перед этим
+ * смещением: если они не совпали, файл переписан, а не дописан. Для выходных
+ * файлов хранятся размеры на момент отметки (0 - файла ещё нет), первая
+ * отметка сохраняется сразу при запуске; всё, что записано после последней
+ * (запуск упал), при следующем запуске отрезается, поэтому строки не
+ * дублируются. Файл отметок пишется целиком во временный и атомарно заменяет
+ * старый
+ */
+final class Manifest {
+
+	static final int HASH_WINDOW = 64 * 1024;
+
+	record Entry(long size, long mtime, long offset, long head, long tail) {
+	}
+
+	private final Path file;
+	private final Map<String, Entry> inputs = new HashMap<>();
+	private final Map<String, Long> outputs = new HashMap<>();
+	// файл отметок был: выходной файл не из отметок появился после последней
+	private boolean saved = false;
+	// в выходных файлах могут быть записи файла дальше его отметки
+	private volatile boolean readFailed = false;
+
+	private Manifest(Path file) {
+		this.file = file;
+	}
+
+	static Manifest load(Path file) throws IOException {
+		Manifest manifest = new Manifest(file);
+		Properties props = new Properties();
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			props.load(reader);
+		} catch (NoSuchFileException e) {
+			return manifest;
+		}
+		manifest.saved = true;
+		try {
+			for (String key : props.stringPropertyNames()) {
+				if (key.startsWith("input.") && key.endsWith(".offset")) {
+					String name = key.substring("input.".length(), key.length() - ".offset".length());
+					String prefix = "input." + name;
+					manifest.inputs.put(name, new Entry(Long.parseLong(props.getProperty(prefix + ".size")),
+							Long.parseLong(props.getProperty(prefix + ".mtime")), Long.parseLong(props.getProperty(key)),
+							Long.parseUnsignedLong(props.getProperty(prefix + ".head"), 16),
+							Long.parseUnsignedLong(props.getProperty(prefix + ".tail"), 16)));
+				} else if (key.startsWith("output.")) {
+					manifest.outputs.put(key.substring("output.".length()), Long.parseLong(props.getProperty(key)));
+				}
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("Повреждённый файл отметок " + file, e);
+		}
+		return manifest;
+	}
+
+	private static String key(String filename) {
+		return Path.of(filename).toAbsolutePath().normalize().toString();
+	}
+
+	/**
+	 * С какого байта продолжать чтение файла: смещение из отметки, если файл с
+	 * тех пор только дописывался, иначе 0.
+	 */
+	long resumeOffset(String filename) throws IOException {
+		Entry entry = inputs.get(key(filename));
+		if (entry == null)
+			return 0;
+		Path path = Path.of(filename);
+		long size = Files.size(path);
+		if (size == entry.size() && Files.getLastModifiedTime(path).toMillis() == entry.mtime())
+			return entry.offset();
+		if (size >= entry.offset()) {
+			long[] hashes = hashes(path, entry.offset());
+			if (hashes[0] == entry.head() && hashes[1] == entry.tail())
+				return entry.offset();
+		}
+		System.out.println("Файл " + filename + " изменился с прошлого запуска и будет обработан заново.");
+		return 0;
+	}
+
+	/**
+	 * Отметки по ходу чтения: сохраняются, как только с прошлой отметки
+	 * прочитано every байт, перед этим выходные файлы сбрасываются на диск.
+	 */
+	Ingest.Progress checkpoints(Outputs outputs, long every) {
+		return new Ingest.Progress() {
+			private long pending = 0;
+
+			@Override
+			public void processed(String filename, long end) {
+				Entry previous = inputs.get(key(filename));
+				pending += previous == null || previous.offset() > end ? end : end - previous.offset();
+				try {
+					Manifest.this.processed(filename, end);
+				} catch (IOException e) {
+					System.err.println("Не удалось записать отметку для файла " + filename);
+					return;
+				}
+				if (pending >= every) {
+					checkpoint(outputs);
+					pending = 0;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Чтение файла оборвалось: записи его куска уже в выходных файлах, а
+	 * отметка осталась на начале куска. Отметки больше не сохраняются, и
+	 * следующий запуск отрежет всё записанное после последней сохранённой.
+	 */
+	void readFailed() {
+		if (readFailed)
+			return;
+		readFailed = true;
+		System.err.println("После ошибки чтения отметки в " + file
+				+ " больше не сохраняются, следующий запуск --resume продолжит с последней сохранённой.");
+	}
+
+	/** Сбрасывает выходные файлы на диск и сохраняет отметки, если запись и чтение не сломались. */
+	void checkpoint(Outputs outputs) {
+		outputs.checkpoint();
+		if (outputs.failed() || readFailed)
+			return;
+		try {
+			save(outputs.sizes());
+		} catch (IOException e) {
+			System.err.println("Не удалось сохранить отметки в файл " + file);
+		}
+	}
+
+	/** Строки файла до offset записаны в выходные файлы. */
+	void processed(String filename, long offset) throws IOException {
+		Path path = Path.of(filename);
+		long[] hashes = hashes(path, offset);
+		inputs.put(key(filename), new Entry(Files.size(path), Files.getLastModifiedTime(path).toMillis(), offset,
+				hashes[0], hashes[1]));
+	}
+
+	/**
+	 * Отрезает от выходных файлов то, что было записано после последней
+	 * отметки, и сохраняет отметку с их размерами, так что запуск, который
+	 * упадёт до следующей, тоже не оставит лишних строк.
+	 */
+	void start(Path dir, Outputs current) throws IOException {
+		Map<String, Long> sizes = new HashMap<>(outputs);
+		if (saved) {
+			for (Output output : current.files())
+				sizes.putIfAbsent(output.filename(), 0L);
+		}
+		for (Map.Entry<String, Long> output : sizes.entrySet()) {
+			Path path = dir.resolve(output.getKey());
+			if (!Files.exists(path))
+				continue;
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				if (channel.size() > output.getValue()) {
+					System.out.println("Из файла " + output.getKey()
+							+ " удалены строки, записанные после последней отметки прерванного запуска.");
+					channel.truncate(output.getValue());
+				}
+			}
+		}
+		save(current.sizes());
+	}
+
+	/** Сохраняет отметки вместе с текущими размерами выходных файлов. */
+	void save(Map<String, Long> outputSizes) throws IOException {
+		outputs.putAll(outputSizes);
+		Properties props = new Properties();
+		for (Map.Entry<String, Entry> input : inputs.entrySet()) {
+			String prefix = "input." + input.getKey();
+			Entry entry = input.getValue();
+			props.setProperty(prefix + ".size", String.valueOf(entry.size()));
+			props.setProperty(prefix + ".mtime", String.valueOf(entry.mtime()));
+			props.setProperty(prefix + ".offset", String.valueOf(entry.offset()));
+			props.setProperty(prefix + ".head", Long.toHexString(entry.head()));
+			props.setProperty(prefix + ".tail", Long.toHexString(entry.tail()));
+		}
+		for (Map.Entry<String, Long> output : outputs.entrySet())
+			props.setProperty("output." + output.getKey(), String.valueOf(output.getValue()));
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING); OutputStream out = Channels.newOutputStream(channel)) {
+			props.store(out, "sorting-util manifest");
+			channel.force(false);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/** Контрольные суммы [0, HASH_WINDOW) и [offset - HASH_WINDOW, offset), не дальше offset. */
+	private static long[] hashes(Path path, long offset) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new long[] { crc(channel, 0, Math.min(offset, HASH_WINDOW)),
+					crc(channel, Math.max(0, offset - HASH_WINDOW), offset) };
+		}
+	}
+
+	private static long crc(FileChannel channel, long start, long end) throws IOException {
+		CRC32C crc = new CRC32C();
+		ByteBuffer buf = ByteBuffer.allocate((int) (end - start));
+		while (buf.hasRemaining() && channel.read(buf, start + buf.position()) > 0)
+			;
+		buf.flip();
+		crc.update(buf);
+		return crc.getValue();
+	}
+}
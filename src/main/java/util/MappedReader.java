@@ -0,0 +1,302 @@
+package main.java.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import main.java.util.Classifier.Kind;
+
+/*
+ * Чтение файла через отображение в память. Строки ищутся и классифицируются
+ * прямо по байтам UTF-8 и отдаются как срезы буфера, без создания String.
+ * Результат совпадает с BufferedReader.readLine(): разделители те же ('\n',
+ * '\r', "\r\n"), а строки с некорректным UTF-8 и строки из одних пробельных
+ * символов не-ASCII декодируются, как это сделал бы FileReader.
+ * Строки с некорректным UTF-8 и числа без цифр ещё и отдаются в
+ * Handler.reject вместе с местом в файле, а участок файла, который не
+ * удалось отобразить или прочитать, пропускается до следующей строки.
+ */
+final class MappedReader {
+
+	static final long WINDOW = 256L * 1024 * 1024;
+	private static final long MAX_WINDOW = Integer.MAX_VALUE - 8;
+	static final int STREAM_BUFFER = 1024 * 1024;
+
+	/** Откуда строки буфера: для {@link Ingest.Rejected}. */
+	static final class Origin {
+		final String filename;
+		final boolean quarantine;
+		// смещение начала буфера во входных данных
+		long base;
+		// до какой позиции буфера строки уже переданы дальше
+		int scanned;
+
+		Origin(String filename, boolean quarantine) {
+			this.filename = filename;
+			this.quarantine = quarantine;
+		}
+
+		/** Сообщает о строке с ошибкой; true - дальше её не передавать. */
+		boolean reject(ByteBuffer buf, int start, int end, String reason, Ingest.Handler handler) {
+			byte[] bytes = new byte[end - start];
+			buf.get(start, bytes);
+			handler.reject(new Ingest.Rejected(filename, base + start, reason, bytes));
+			return quarantine;
+		}
+	}
+
+	private MappedReader() {
+	}
+
+	/**
+	 * Читает [start, end) файла; end < 0 - до конца файла.
+	 *
+	 * @param categories категории для записей, которые не числа (null - нет)
+	 * @param metrics    куда добавлять время классификации (null - не считать)
+	 * @param quarantine строки с ошибками только отдавать в Handler.reject
+	 */
+	static void read(String filename, long start, long end, Categories categories, Metrics metrics,
+			boolean quarantine, Ingest.Handler handler) throws IOException {
+		Origin origin = new Origin(filename, quarantine);
+		try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+			if (end < 0)
+				end = channel.size();
+			long pos = start;
+			long window = WINDOW;
+			while (pos < end) {
+				long len = Math.min(end - pos, window);
+				int consumed;
+				origin.base = pos;
+				origin.scanned = 0;
+				try {
+					MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+					consumed = scan(buf, (int) len, pos + len == end, categories, metrics, origin, handler);
+				} catch (IOException | InternalError e) {
+					// InternalError - сбой чтения страницы отображённого файла
+					pos = skip(channel, origin, pos + len, end, e, handler);
+					window = WINDOW;
+					continue;
+				}
+				if (consumed == 0) {
+					// строка не поместилась в окно целиком
+					if (window == MAX_WINDOW)
+						throw new IOException("Слишком длинная строка в файле " + filename);
+					window = Math.min(window * 2, MAX_WINDOW);
+					continue;
+				}
+				pos += consumed;
+				window = WINDOW;
+			}
+		}
+	}
+
+	/*
+	 * строки до сбоя уже переданы дальше, остаток окна пропускается вместе с
+	 * началом строки, на которой окно кончилось
+	 */
+	private static long skip(FileChannel channel, Origin origin, long from, long end, Throwable e,
+			Ingest.Handler handler) {
+		long failed = origin.base + origin.scanned;
+		long next;
+		try {
+			next = from == end ? end : Ingest.nextLineStart(channel, from - 1, end, ByteBuffer.allocate(8192));
+		} catch (IOException again) {
+			next = from;
+		}
+		System.err.println("Не удалось прочитать файл " + origin.filename + " с позиции " + failed + " до " + next
+				+ ", эти байты пропущены");
+		handler.reject(new Ingest.Rejected(origin.filename, failed,
+				"не прочитано " + (next - failed) + " байт: " + e.getMessage(), new byte[0]));
+		return next;
+	}
+
+	/**
+	 * Читает поток (stdin, распакованный gzip) по тем же правилам, что и файл.
+	 * Строки передаются срезами буфера, поэтому заполненный буфер не
+	 * переиспользуется, а недочитанная строка переносится в новый.
+	 */
+	static void read(InputStream in, String filename, Categories categories, Metrics metrics, boolean quarantine,
+			Ingest.Handler handler) throws IOException {
+		Origin origin = new Origin(filename, quarantine);
+		ByteBuffer buf = ByteBuffer.allocate(STREAM_BUFFER);
+		int filled = 0;
+		int from = 0;
+		long offset = 0;
+		while (true) {
+			if (filled == buf.capacity()) {
+				int tail = filled - from;
+				// длинной строке - вдвое больше места, чем уже занято её началом
+				ByteBuffer next = ByteBuffer.allocate(Math.max(STREAM_BUFFER, 2 * tail));
+				next.put(0, buf, from, tail);
+				buf = next;
+				filled = tail;
+				from = 0;
+			}
+			int n;
+			try {
+				n = in.read(buf.array(), filled, buf.capacity() - filled);
+			} catch (IOException e) {
+				// целые строки ещё передаются, а начало недочитанной - в reject
+				ByteBuffer part = buf.slice(from, filled - from);
+				origin.base = offset;
+				int consumed = scan(part, part.limit(), false, categories, metrics, origin, handler);
+				origin.reject(part, consumed, part.limit(), "не прочитано до конца: " + e.getMessage(), handler);
+				throw e;
+			}
+			boolean atEnd = n < 0;
+			if (!atEnd) {
+				filled += n;
+				// пока данные есть, буфер дозаполняется, а медленный поток разбирается сразу
+				if (filled < buf.capacity() && in.available() > 0)
+					continue;
+			}
+			ByteBuffer part = buf.slice(from, filled - from);
+			origin.base = offset;
+			int consumed = scan(part, part.limit(), atEnd, categories, metrics, origin, handler);
+			from += consumed;
+			offset += consumed;
+			if (atEnd)
+				return;
+		}
+	}
+
+	/**
+	 * Разбирает строки в [0, limit) и возвращает, сколько байт занимают целые
+	 * строки. Если atEnd, то последняя строка может быть и без разделителя.
+	 */
+	static int scan(ByteBuffer buf, int limit, boolean atEnd, Categories categories, Metrics metrics,
+			Ingest.Handler handler) {
+		return scan(buf, limit, atEnd, categories, metrics, null, handler);
+	}
+
+	/** @param origin откуда строки, для строк с ошибками (null - их не выделять) */
+	static int scan(ByteBuffer buf, int limit, boolean atEnd, Categories categories, Metrics metrics, Origin origin,
+			Ingest.Handler handler) {
+		int lineStart = 0;
+		int i = 0;
+		int lines = 0;
+		while (i < limit) {
+			byte b = buf.get(i);
+			if (b != '\n' && b != '\r') {
+				i++;
+				continue;
+			}
+			int next = i + 1;
+			if (b == '\r') {
+				if (next < limit) {
+					if (buf.get(next) == '\n')
+						next++;
+				} else if (!atEnd) {
+					// неизвестно, идёт ли дальше '\n'
+					break;
+				}
+			}
+			line(buf, lineStart, i, categories, sample(metrics, ++lines), origin, handler);
+			lineStart = i = next;
+			if (origin != null)
+				origin.scanned = lineStart;
+		}
+		if (atEnd && lineStart < limit) {
+			line(buf, lineStart, limit, categories, sample(metrics, ++lines), origin, handler);
+			lineStart = limit;
+		}
+		return lineStart;
+	}
+
+	// metrics только у каждой Metrics.SAMPLE-й строки
+	private static Metrics sample(Metrics metrics, int line) {
+		return metrics != null && (line & Metrics.SAMPLE_MASK) == 0 ? metrics : null;
+	}
+
+	private static void line(ByteBuffer buf, int start, int end, Categories categories, Metrics sampled,
+			Origin origin, Ingest.Handler handler) {
+		boolean ascii = true;
+		boolean blank = true;
+		for (int i = start; i < end && blank; i++) {
+			int b = buf.get(i);
+			if (b < 0)
+				ascii = false;
+			else if (!isAsciiWhitespace(b))
+				blank = false;
+		}
+		if (blank && (ascii || decode(buf, start, end).isBlank()))
+			return;
+
+		long since = sampled == null ? 0 : System.nanoTime();
+		int trimmedStart = Classifier.trimStart(buf, start, end);
+		int trimmedEnd = Classifier.trimEnd(buf, trimmedStart, end);
+		Kind kind = Classifier.classify(buf, trimmedStart, trimmedEnd);
+		int category = kind == Kind.STRING && categories != null ? categories.match(buf, trimmedStart, trimmedEnd) : -1;
+		if (sampled != null)
+			sampled.sampled(Metrics.Stage.CLASSIFY, System.nanoTime() - since);
+		if (category >= 0) {
+			if (isValidUtf8(buf, trimmedStart, trimmedEnd))
+				handler.accept(category, buf, trimmedStart, trimmedEnd);
+			else if (!rejected(origin, buf, start, end, Ingest.Rejected.BAD_UTF8, handler))
+				handler.accept(category, decode(buf, trimmedStart, trimmedEnd).trim());
+		} else if (kind != Kind.STRING) {
+			if (kind == Kind.INTEGER || Classifier.hasDigits(buf, trimmedStart, trimmedEnd)
+					|| !rejected(origin, buf, start, end, Ingest.Rejected.NO_DIGITS, handler))
+				handler.accept(kind, buf, trimmedStart, trimmedEnd);
+		} else if (isValidUtf8(buf, start, end)) {
+			handler.accept(kind, buf, start, end);
+		} else if (!rejected(origin, buf, start, end, Ingest.Rejected.BAD_UTF8, handler)) {
+			handler.accept(kind, decode(buf, start, end));
+		}
+	}
+
+	private static boolean rejected(Origin origin, ByteBuffer buf, int start, int end, String reason,
+			Ingest.Handler handler) {
+		return origin != null && origin.reject(buf, start, end, reason, handler);
+	}
+
+	// пробельные символы ASCII по Character.isWhitespace
+	private static boolean isAsciiWhitespace(int b) {
+		return b == ' ' || (b >= 0x09 && b <= 0x0d) || (b >= 0x1c && b <= 0x1f);
+	}
+
+	private static String decode(ByteBuffer buf, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		buf.get(start, bytes);
+		return new String(bytes, Util.encoding);
+	}
+
+	static boolean isValidUtf8(ByteBuffer buf, int start, int end) {
+		int i = start;
+		while (i < end) {
+			int b = buf.get(i) & 0xff;
+			if (b < 0x80) {
+				i++;
+				continue;
+			}
+			int tail;
+			if (b >= 0xc2 && b <= 0xdf)
+				tail = 1;
+			else if (b >= 0xe0 && b <= 0xef)
+				tail = 2;
+			else if (b >= 0xf0 && b <= 0xf4)
+				tail = 3;
+			else
+				return false;
+			if (i + tail >= end)
+				return false;
+			int b1 = buf.get(i + 1) & 0xff;
+			if ((b1 & 0xc0) != 0x80)
+				return false;
+			// слишком длинные формы, суррогаты и коды больше U+10FFFF
+			if ((b == 0xe0 && b1 < 0xa0) || (b == 0xed && b1 > 0x9f) || (b == 0xf0 && b1 < 0x90)
+					|| (b == 0xf4 && b1 > 0x8f))
+				return false;
+			for (int k = 2; k <= tail; k++) {
+				if ((buf.get(i + k) & 0xc0) != 0x80)
+					return false;
+			}
+			i += tail + 1;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,290 @@
+package main.java.util;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * Показатели запуска для --metrics: объём и число строк, время по этапам,
+ * по каждому входному файлу, сборка мусора и выделенная память. Этапы
+ * пересекаются: read - всё время чтения кусков файлов (в последовательном
+ * режиме вместе с передачей строк в буферы записи), classify и stats - его
+ * части, их время оценивается по каждой SAMPLE-й строке, чтобы не вызывать
+ * System.nanoTime на каждой. Время чтения и сжатия суммируется по потокам.
+ * Без --metrics объекта нет, и на горячем пути остаются только проверки на null
+ */
+final class Metrics implements MetricsMXBean {
+
+	enum Stage {
+		READ, CLASSIFY, STATS, WRITE, COMPRESS, SORT;
+
+		String label() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	static final int SAMPLE = 1024;
+	static final int SAMPLE_MASK = SAMPLE - 1;
+
+	private static final class FileMetrics {
+		final LongAdder nanos = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder lines = new LongAdder();
+	}
+
+	private final long started = System.nanoTime();
+	private volatile long finished = 0;
+	private final LongAdder[] stages = new LongAdder[Stage.values().length];
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder lines = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	// в порядке файлов, а в режиме --watch и появившиеся позже
+	private final Map<String, FileMetrics> files = Collections.synchronizedMap(new LinkedHashMap<>());
+
+	Metrics(List<String> filenames) {
+		for (int i = 0; i < stages.length; i++)
+			stages[i] = new LongAdder();
+		for (String filename : filenames)
+			files.putIfAbsent(filename, new FileMetrics());
+	}
+
+	void time(Stage stage, long nanos) {
+		stages[stage.ordinal()].add(nanos);
+	}
+
+	/** Время одной строки из каждых SAMPLE. */
+	void sampled(Stage stage, long nanos) {
+		time(stage, nanos * SAMPLE);
+	}
+
+	/** Прочитан кусок файла: bytes байт, lines записей за nanos. */
+	void read(String filename, long bytes, long lines, long nanos) {
+		time(Stage.READ, nanos);
+		bytesRead.add(bytes);
+		this.lines.add(lines);
+		FileMetrics file = files.computeIfAbsent(filename, name -> new FileMetrics());
+		file.nanos.add(nanos);
+		file.bytes.add(bytes);
+		file.lines.add(lines);
+	}
+
+	void written(long nanos, long bytes) {
+		time(Stage.WRITE, nanos);
+		bytesWritten.add(bytes);
+	}
+
+	void finish() {
+		finished = System.nanoTime();
+	}
+
+	private long elapsedNanos() {
+		long end = finished;
+		return (end == 0 ? System.nanoTime() : end) - started;
+	}
+
+	@Override
+	public long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(elapsedNanos());
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	@Override
+	public long getLines() {
+		return lines.sum();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public double getBytesPerSecond() {
+		return perSecond(bytesRead.sum());
+	}
+
+	@Override
+	public double getLinesPerSecond() {
+		return perSecond(lines.sum());
+	}
+
+	private double perSecond(long value) {
+		long nanos = elapsedNanos();
+		return nanos == 0 ? 0 : value * 1e9 / nanos;
+	}
+
+	@Override
+	public Map<String, Long> getStageMillis() {
+		Map<String, Long> millis = new LinkedHashMap<>();
+		for (Stage stage : Stage.values())
+			millis.put(stage.label(), TimeUnit.NANOSECONDS.toMillis(stages[stage.ordinal()].sum()));
+		return millis;
+	}
+
+	void register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("main.java.util:type=Metrics"));
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			millis += Math.max(0, gc.getCollectionTime());
+		return millis;
+	}
+
+	/** Память, выделенная в куче всеми потоками с запуска JVM; -1, если JVM этого не умеет. */
+	private static long allocatedBytes() {
+		try {
+			if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+				return threads.getTotalThreadAllocatedBytes();
+		} catch (UnsupportedOperationException e) {
+			// нет поддержки в этой JVM
+		}
+		return -1;
+	}
+
+	private List<Map.Entry<String, FileMetrics>> files() {
+		synchronized (files) {
+			return new ArrayList<>(files.entrySet());
+		}
+	}
+
+	private static String seconds(long nanos) {
+		return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+	}
+
+	private static String number(double value) {
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+
+	private static String jsonString(String value) {
+		StringBuilder out = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				out.append('\\').append(c);
+			else if (c < 0x20)
+				out.append(String.format("\\u%04x", (int) c));
+			else
+				out.append(c);
+		}
+		return out.append('"').toString();
+	}
+
+	String json() {
+		long elapsed = elapsedNanos();
+		StringBuilder out = new StringBuilder("{\n");
+		out.append("  \"elapsed_seconds\": ").append(seconds(elapsed)).append(",\n");
+		out.append("  \"bytes_read\": ").append(getBytesRead()).append(",\n");
+		out.append("  \"lines\": ").append(getLines()).append(",\n");
+		out.append("  \"bytes_written\": ").append(getBytesWritten()).append(",\n");
+		out.append("  \"bytes_per_second\": ").append(number(getBytesPerSecond())).append(",\n");
+		out.append("  \"lines_per_second\": ").append(number(getLinesPerSecond())).append(",\n");
+		out.append("  \"stage_seconds\": {");
+		for (Stage stage : Stage.values()) {
+			out.append(stage.ordinal() == 0 ? "\n" : ",\n").append("    \"").append(stage.label()).append("\": ")
+					.append(seconds(stages[stage.ordinal()].sum()));
+		}
+		out.append("\n  },\n");
+		out.append("  \"gc_collections\": ").append(gcCount()).append(",\n");
+		out.append("  \"gc_seconds\": ").append(seconds(TimeUnit.MILLISECONDS.toNanos(gcMillis()))).append(",\n");
+		out.append("  \"allocated_bytes\": ").append(allocatedBytes()).append(",\n");
+		out.append("  \"files\": [");
+		boolean first = true;
+		for (Map.Entry<String, FileMetrics> file : files()) {
+			FileMetrics metrics = file.getValue();
+			out.append(first ? "\n" : ",\n").append("    {\"name\": ").append(jsonString(file.getKey()))
+					.append(", \"bytes\": ").append(metrics.bytes.sum()).append(", \"lines\": ")
+					.append(metrics.lines.sum()).append(", \"seconds\": ").append(seconds(metrics.nanos.sum()))
+					.append('}');
+			first = false;
+		}
+		out.append(first ? "]\n" : "\n  ]\n").append("}\n");
+		return out.toString();
+	}
+
+	private static String label(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static void metric(StringBuilder out, String name, String type, String help) {
+		out.append("# HELP sorting_util_").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE sorting_util_").append(name).append(' ').append(type).append('\n');
+	}
+
+	/** Текстовый формат Prometheus (для node_exporter textfile или pushgateway). */
+	String prometheus() {
+		StringBuilder out = new StringBuilder();
+		metric(out, "elapsed_seconds", "gauge", "Wall time of the run.");
+		out.append("sorting_util_elapsed_seconds ").append(seconds(elapsedNanos())).append('\n');
+		metric(out, "read_bytes_total", "counter", "Bytes read from input files.");
+		out.append("sorting_util_read_bytes_total ").append(getBytesRead()).append('\n');
+		metric(out, "lines_total", "counter", "Records read from input files.");
+		out.append("sorting_util_lines_total ").append(getLines()).append('\n');
+		metric(out, "written_bytes_total", "counter", "Bytes written to output files.");
+		out.append("sorting_util_written_bytes_total ").append(getBytesWritten()).append('\n');
+		metric(out, "stage_seconds", "gauge", "Time per stage, summed over threads; classify and stats are sampled.");
+		for (Stage stage : Stage.values()) {
+			out.append("sorting_util_stage_seconds{stage=\"").append(stage.label()).append("\"} ")
+					.append(seconds(stages[stage.ordinal()].sum())).append('\n');
+		}
+		metric(out, "gc_collections_total", "counter", "Garbage collections since JVM start.");
+		out.append("sorting_util_gc_collections_total ").append(gcCount()).append('\n');
+		metric(out, "gc_seconds_total", "counter", "Garbage collection time since JVM start.");
+		out.append("sorting_util_gc_seconds_total ").append(seconds(TimeUnit.MILLISECONDS.toNanos(gcMillis())))
+				.append('\n');
+		metric(out, "allocated_bytes_total", "counter", "Heap bytes allocated by all threads since JVM start.");
+		out.append("sorting_util_allocated_bytes_total ").append(allocatedBytes()).append('\n');
+		List<Map.Entry<String, FileMetrics>> files = files();
+		metric(out, "file_read_bytes_total", "counter", "Bytes read per input file.");
+		for (Map.Entry<String, FileMetrics> file : files) {
+			out.append("sorting_util_file_read_bytes_total{file=\"").append(label(file.getKey())).append("\"} ")
+					.append(file.getValue().bytes.sum()).append('\n');
+		}
+		metric(out, "file_lines_total", "counter", "Records read per input file.");
+		for (Map.Entry<String, FileMetrics> file : files) {
+			out.append("sorting_util_file_lines_total{file=\"").append(label(file.getKey())).append("\"} ")
+					.append(file.getValue().lines.sum()).append('\n');
+		}
+		metric(out, "file_read_seconds", "gauge", "Read time per input file, summed over threads.");
+		for (Map.Entry<String, FileMetrics> file : files) {
+			out.append("sorting_util_file_read_seconds{file=\"").append(label(file.getKey())).append("\"} ")
+					.append(seconds(file.getValue().nanos.sum())).append('\n');
+		}
+		return out.toString();
+	}
+
+	/** Записывает показатели в файл или, если target - "-", в stdout. */
+	void report(String target, boolean prometheus) throws IOException {
+		String text = prometheus ? prometheus() : json();
+		if (target.equals("-"))
+			System.out.print(text);
+		else
+			Files.writeString(Path.of(target), text, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,22 @@
+package main.java.util;
+
+import java.util.Map;
+
+/** Показатели текущего запуска в JMX (опция --jmx), объект main.java.util:type=Metrics. */
+public interface MetricsMXBean {
+
+	long getElapsedMillis();
+
+	long getBytesRead();
+
+	long getLines();
+
+	long getBytesWritten();
+
+	double getBytesPerSecond();
+
+	double getLinesPerSecond();
+
+	/** Время по этапам: read, classify, stats, write, compress, sort. */
+	Map<String, Long> getStageMillis();
+}
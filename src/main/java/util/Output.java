@@ -0,0 +1,443 @@
+package main.java.util;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/*
+ * Выходной файл одной категории: открывается при первой записи, чтобы не
+ * создавать пустые файлы и не трогать существующие, если данных для них нет.
+ * Записи собираются в большом direct-буфере и уходят в FileChannel одним
+ * системным вызовом; запись, которая больше половины буфера, не копируется,
+ * а пишется вместе с накопленным буфером через gathering write.
+ * Со сжатием каждый заполненный буфер уходит в Compression отдельным блоком,
+ * а сжатые блоки пишутся в файл по порядку, как только будут готовы.
+ * Вместо файла можно писать в stdout, в том числе записи нескольких
+ * категорий вперемешку, каждую с меткой категории. Числа можно писать не
+ * текстом, а блоками {@link Columnar}: блок уходит в буфер, когда заполнится,
+ * и при каждой отметке, так что отметка всегда приходится на границу блока.
+ */
+final class Output {
+
+	/**
+	 * @param bufferSize размер буфера в байтах
+	 * @param syncAtEnd  вызывать fsync перед закрытием файла
+	 * @param syncEvery  вызывать fsync после каждых syncEvery байт (0 - не вызывать)
+	 * @param gzip       сжимать файл блоками в этом пуле (null - не сжимать)
+	 * @param metrics    куда добавлять время и объём записи (null - не считать)
+	 * @param binary     целые и дробные писать в формате {@link Columnar}
+	 */
+	record Options(int bufferSize, boolean syncAtEnd, long syncEvery, Compression gzip, Metrics metrics,
+			boolean binary) {
+		static final Options DEFAULT = new Options(1024 * 1024, false, 0, null, null, false);
+	}
+
+	private static final byte[] newLine = System.lineSeparator().getBytes(Util.encoding);
+	private static final byte[] NO_TAG = {};
+
+	private final Path filepath;
+	private final String filename;
+	private final boolean append;
+	private final Options options;
+	private final ByteBuffer buf;
+	private final ByteBuffer lineEnd = ByteBuffer.wrap(newLine);
+	private final ByteBuffer[] gather;
+	// блоки, которые ещё сжимаются, в порядке записи
+	private final ArrayDeque<Future<byte[]>> compressing = new ArrayDeque<>();
+	// для записей с меткой: куда они пишутся на самом деле
+	private final Output target;
+	private final byte[] tag;
+	// null - текстовый файл
+	private final ColumnWriter column;
+	private boolean headerWritten = false;
+	private FileChannel channel;
+	private boolean failed = false;
+	private long count = 0;
+	private long unsynced = 0;
+
+	Output(Path dir, String filename, boolean append, Options options) {
+		this(dir, filename, append, options, null);
+	}
+
+	/** @param column писать числа блоками через него (null - текстом) */
+	Output(Path dir, String filename, boolean append, Options options, ColumnWriter column) {
+		this.filepath = dir.resolve(filename);
+		this.filename = filename;
+		this.append = append;
+		this.options = options;
+		this.buf = ByteBuffer.allocateDirect(Math.max(options.bufferSize(), 2 * newLine.length));
+		this.gather = new ByteBuffer[] { buf, null, lineEnd };
+		this.target = null;
+		this.tag = NO_TAG;
+		this.column = column;
+	}
+
+	// stdout: канал открыт заранее и не закрывается, на диск не сбрасывается
+	private Output(FileChannel channel, Options options) {
+		this.filepath = null;
+		this.filename = "stdout";
+		this.append = true;
+		this.options = options;
+		this.buf = ByteBuffer.allocateDirect(Math.max(options.bufferSize(), 2 * newLine.length));
+		this.gather = new ByteBuffer[] { buf, null, lineEnd };
+		this.channel = channel;
+		this.target = null;
+		this.tag = NO_TAG;
+		this.column = null;
+	}
+
+	private Output(Output target, String tag) {
+		this.filepath = null;
+		this.filename = target.filename;
+		this.append = true;
+		this.options = target.options;
+		this.buf = null;
+		this.gather = null;
+		this.target = target;
+		this.tag = (tag + "\t").getBytes(Util.encoding);
+		this.column = null;
+	}
+
+	static Output stdout(Options options) {
+		return new Output(new FileOutputStream(FileDescriptor.out).getChannel(), options);
+	}
+
+	/** Записи с меткой {@code <tag>\t} перед каждой, которые пишутся в этот же вывод. */
+	Output tagged(String tag) {
+		return new Output(this, tag);
+	}
+
+	void write(String elem) {
+		// String.getBytes быстрее CharsetEncoder, который пишет в direct-буфер посимвольно
+		byte[] bytes = elem.getBytes(Util.encoding);
+		write(ByteBuffer.wrap(bytes), 0, bytes.length, false);
+	}
+
+	void write(ByteBuffer src, int start, int end) {
+		write(src, start, end, false);
+	}
+
+	/** Запись из метки и байтов, как строка в stdout с --stdout all. */
+	void write(byte[] tag, byte[] bytes) {
+		write(tag, ByteBuffer.wrap(bytes), 0, bytes.length, false);
+	}
+
+	/** Запись числа с плавающей запятой: ',' заменяется на '.'. */
+	void writeDecimal(ByteBuffer src, int start, int end) {
+		write(src, start, end, true);
+	}
+
+	private void write(ByteBuffer src, int start, int end, boolean decimal) {
+		if (target == null) {
+			write(NO_TAG, src, start, end, decimal);
+			return;
+		}
+		long before = target.count;
+		target.write(tag, src, start, end, decimal);
+		count += target.count - before;
+	}
+
+	private void write(byte[] tag, ByteBuffer src, int start, int end, boolean decimal) {
+		if (!open())
+			return;
+		try {
+			if (column != null) {
+				writeColumn(src, start, end);
+				return;
+			}
+			int len = end - start;
+			if (tag.length > buf.remaining())
+				drain();
+			buf.put(tag);
+			if (len > buf.capacity() / 2) {
+				if (decimal) {
+					// в буфер не поместится, ',' заменяется в копии
+					byte[] copy = new byte[len];
+					src.get(start, copy);
+					for (int i = 0; i < len; i++) {
+						if (copy[i] == ',')
+							copy[i] = '.';
+					}
+					src = ByteBuffer.wrap(copy);
+					start = 0;
+				}
+				if (options.gzip() == null)
+					gather(src.slice(start, len));
+				else
+					compressRecord(src, start, len);
+				return;
+			}
+			if (len > buf.remaining())
+				drain();
+			int from = buf.position();
+			buf.put(buf.position(), src, start, len);
+			buf.position(from + len);
+			if (decimal) {
+				for (int i = from; i < from + len; i++) {
+					if (buf.get(i) == ',')
+						buf.put(i, (byte) '.');
+				}
+			}
+			endLine();
+		} catch (IOException e) {
+			fail();
+		}
+	}
+
+	private void writeColumn(ByteBuffer src, int start, int end) throws IOException {
+		if (!headerWritten) {
+			headerWritten = true;
+			// в файл, в который дописываем (-a, --resume), заголовок уже записан
+			if (channel.size() == 0)
+				put(column.fileHeader());
+		}
+		column.add(src, start, end);
+		count++;
+		if (column.isFull())
+			put(column.take(true));
+	}
+
+	// все неполные блоки - перед отметкой или закрытием
+	private void flushColumn() throws IOException {
+		if (column == null)
+			return;
+		ByteBuffer block;
+		while ((block = column.take(false)) != null)
+			put(block);
+	}
+
+	// байты как есть, без перевода строки
+	private void put(ByteBuffer bytes) throws IOException {
+		if (bytes.remaining() > buf.remaining())
+			drain();
+		if (bytes.remaining() <= buf.remaining()) {
+			buf.put(bytes);
+			return;
+		}
+		if (options.gzip() != null) {
+			byte[] block = new byte[bytes.remaining()];
+			bytes.get(block);
+			compress(block);
+			return;
+		}
+		long total = bytes.remaining();
+		long since = System.nanoTime();
+		while (bytes.hasRemaining())
+			channel.write(bytes);
+		written(since, total);
+	}
+
+	private boolean open() {
+		if (failed)
+			return false;
+		if (channel != null)
+			return true;
+		try {
+			channel = FileChannel.open(filepath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+			return true;
+		} catch (IOException e) {
+			fail();
+			return false;
+		}
+	}
+
+	private void endLine() throws IOException {
+		if (buf.remaining() < newLine.length)
+			drain();
+		buf.put(newLine);
+		count++;
+	}
+
+	private void gather(ByteBuffer record) throws IOException {
+		buf.flip();
+		lineEnd.clear();
+		gather[1] = record;
+		long total = buf.remaining() + record.remaining() + lineEnd.remaining();
+		long since = System.nanoTime();
+		while (lineEnd.hasRemaining())
+			channel.write(gather);
+		gather[1] = null;
+		buf.clear();
+		count++;
+		written(since, total);
+	}
+
+	private void compressRecord(ByteBuffer src, int start, int len) throws IOException {
+		drain();
+		byte[] block = new byte[len + newLine.length];
+		src.get(start, block, 0, len);
+		System.arraycopy(newLine, 0, block, len, newLine.length);
+		compress(block);
+		count++;
+	}
+
+	private void compress(byte[] block) throws IOException {
+		compressing.add(options.gzip().submit(block, block.length));
+		while (compressing.size() > options.gzip().inFlight())
+			writeCompressed();
+	}
+
+	private void writeCompressed() throws IOException {
+		byte[] member;
+		try {
+			member = compressing.poll().get();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		ByteBuffer data = ByteBuffer.wrap(member);
+		long since = System.nanoTime();
+		while (data.hasRemaining())
+			channel.write(data);
+		written(since, member.length);
+	}
+
+	private void drain() throws IOException {
+		if (options.gzip() != null) {
+			if (buf.position() == 0)
+				return;
+			byte[] block = new byte[buf.position()];
+			buf.get(0, block);
+			buf.clear();
+			compress(block);
+			return;
+		}
+		buf.flip();
+		long total = buf.remaining();
+		long since = System.nanoTime();
+		while (buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+		written(since, total);
+	}
+
+	/** В файл с момента since записано bytes байт. */
+	private void written(long since, long bytes) throws IOException {
+		if (options.syncEvery() > 0 && !isStdout()) {
+			unsynced += bytes;
+			if (unsynced >= options.syncEvery()) {
+				channel.force(false);
+				unsynced = 0;
+			}
+		}
+		if (options.metrics() != null)
+			options.metrics().written(System.nanoTime() - since, bytes);
+	}
+
+	private boolean isStdout() {
+		return filepath == null && target == null;
+	}
+
+	private void fail() {
+		if (!failed)
+			System.err.println("Ошибка при записи в файл " + filename);
+		failed = true;
+	}
+
+	/**
+	 * Дописывает в файл всё накопленное и сбрасывает его на диск, чтобы размер
+	 * файла можно было сохранить в отметке.
+	 */
+	void checkpoint() {
+		if (channel == null || !channel.isOpen() || failed)
+			return;
+		try {
+			flushColumn();
+			drain();
+			while (!compressing.isEmpty())
+				writeCompressed();
+			if (!isStdout())
+				channel.force(false);
+		} catch (IOException e) {
+			fail();
+		}
+	}
+
+	/**
+	 * Дописывает файл, который с теми же настройками записал обработчик
+	 * --workers: байты копируются как есть, сжатые - готовыми членами gzip,
+	 * двоичные - вместе с заголовком файла ({@link Columnar} его пропускает).
+	 *
+	 * @param records сколько в нём записей
+	 */
+	void append(Path shard, long records) {
+		if (!open())
+			return;
+		try (FileChannel from = FileChannel.open(shard, StandardOpenOption.READ)) {
+			flushColumn();
+			drain();
+			while (!compressing.isEmpty())
+				writeCompressed();
+			long size = from.size();
+			long since = System.nanoTime();
+			for (long pos = 0; pos < size;)
+				pos += from.transferTo(pos, size - pos, channel);
+			written(since, size);
+			headerWritten = true;
+			count += records;
+		} catch (IOException e) {
+			fail();
+		}
+	}
+
+	/** Размер файла; -1, если его нет или это stdout. */
+	long size() throws IOException {
+		if (filepath == null)
+			return -1;
+		if (channel != null && channel.isOpen())
+			return channel.size();
+		return Files.exists(filepath) ? Files.size(filepath) : -1;
+	}
+
+	boolean failed() {
+		return target == null ? failed : target.failed();
+	}
+
+	/** null для stdout. */
+	Path path() {
+		return filepath;
+	}
+
+	String filename() {
+		return filename;
+	}
+
+	long count() {
+		return count;
+	}
+
+	/** Пишет ли числа блоками {@link Columnar}. */
+	boolean isBinary() {
+		return column != null;
+	}
+
+	void close() {
+		if (channel == null)
+			return;
+		try {
+			if (!failed) {
+				flushColumn();
+				drain();
+				while (!compressing.isEmpty())
+					writeCompressed();
+				if (!isStdout() && (options.syncAtEnd() || options.syncEvery() > 0))
+					channel.force(false);
+			}
+			if (!isStdout())
+				channel.close();
+		} catch (IOException e) {
+			fail();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package main.java.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import main.java.util.Classifier.Kind;
+
+/*
+ * раскладывает классифицированные записи по выходным файлам
+ */
+final class Outputs implements Ingest.Handler {
+
+	/** Все категории в stdout, каждая запись с меткой {@code <категория>\t}. */
+	static final String ALL = "all";
+
+	final Output integers;
+	final Output floats;
+	final Output strings;
+	// по номерам категорий в Categories
+	final Output[] categories;
+	// null - stdout не используется
+	private final Output stdout;
+	// строки с ошибками, null - без --reject
+	final Output rejected;
+	private long malformed = 0;
+
+	Outputs(Path dir, String prefix, boolean append, Output.Options options) {
+		this(dir, prefix, append, options, null);
+	}
+
+	/** @param categories категории, у каждой свой выходной файл (null - нет) */
+	Outputs(Path dir, String prefix, boolean append, Output.Options options, Categories categories) {
+		this(dir, prefix, append, options, categories, null);
+	}
+
+	/**
+	 * @param toStdout какую категорию писать в stdout вместо файла: integers,
+	 *                 floats, strings, имя из categories или {@link #ALL}
+	 *                 (null - ничего)
+	 */
+	Outputs(Path dir, String prefix, boolean append, Output.Options options, Categories categories,
+			String toStdout) {
+		this(dir, prefix, append, options, categories, toStdout, false);
+	}
+
+	/** @param reject писать строки с ошибками в rejected.txt */
+	Outputs(Path dir, String prefix, boolean append, Output.Options options, Categories categories,
+			String toStdout, boolean reject) {
+		this.stdout = toStdout == null ? null : Output.stdout(options);
+		this.rejected = reject
+				? new Output(dir, prefix + "rejected.txt" + (options.gzip() == null ? "" : ".gz"), append, options)
+				: null;
+		this.integers = output(dir, prefix, "integers", append, options, toStdout);
+		this.floats = output(dir, prefix, "floats", append, options, toStdout);
+		this.strings = output(dir, prefix, "strings", append, options, toStdout);
+		this.categories = new Output[categories == null ? 0 : categories.size()];
+		for (int i = 0; i < this.categories.length; i++)
+			this.categories[i] = output(dir, prefix, categories.get(i).name(), append, options, toStdout);
+	}
+
+	private Output output(Path dir, String prefix, String name, boolean append, Output.Options options,
+			String toStdout) {
+		if (name.equals(toStdout))
+			return stdout;
+		if (ALL.equals(toStdout))
+			return stdout.tagged(name);
+		String suffix = options.gzip() == null ? "" : ".gz";
+		if (options.binary() && (name.equals("integers") || name.equals("floats")))
+			return new Output(dir, prefix + name + ".bin" + suffix, append, options,
+					new ColumnWriter(name.equals("floats")));
+		return new Output(dir, prefix + name + ".txt" + suffix, append, options);
+	}
+
+	List<Output> all() {
+		List<Output> all = new ArrayList<>(List.of(integers, floats, strings));
+		all.addAll(List.of(categories));
+		// записи с меткой пишутся в stdout, закрывать и сбрасывать надо его
+		if (stdout != null && !all.contains(stdout))
+			all.add(stdout);
+		if (rejected != null)
+			all.add(rejected);
+		return all;
+	}
+
+	@Override
+	public void accept(Kind kind, String value) {
+		switch (kind) {
+			case INTEGER:
+				integers.write(value);
+				break;
+			case FLOAT:
+				floats.write(value);
+				break;
+			default:
+				strings.write(value);
+		}
+	}
+
+	@Override
+	public void accept(Kind kind, ByteBuffer source, int start, int end) {
+		switch (kind) {
+			case INTEGER:
+				integers.write(source, start, end);
+				break;
+			case FLOAT:
+				floats.writeDecimal(source, start, end);
+				break;
+			default:
+				strings.write(source, start, end);
+		}
+	}
+
+	@Override
+	public void accept(int category, String value) {
+		categories[category].write(value);
+	}
+
+	@Override
+	public void accept(int category, ByteBuffer source, int start, int end) {
+		categories[category].write(source, start, end);
+	}
+
+	/** Строка rejected.txt: файл, смещение и причина через табуляцию, затем сами байты. */
+	@Override
+	public void reject(Ingest.Rejected line) {
+		malformed++;
+		if (rejected != null)
+			rejected.write((line.filename() + "\t" + line.offset() + "\t" + line.reason() + "\t").getBytes(Util.encoding),
+					line.bytes());
+	}
+
+	/** Сколько встретилось строк с ошибками, в том числе записанных с заменой. */
+	long malformed() {
+		return malformed;
+	}
+
+	/** Строки с ошибками, которые встретил обработчик --workers. */
+	void addMalformed(long lines) {
+		malformed += lines;
+	}
+
+	void checkpoint() {
+		for (Output output : all())
+			output.checkpoint();
+	}
+
+	boolean failed() {
+		return all().stream().anyMatch(Output::failed);
+	}
+
+	/** Размеры выходных файлов по именам, 0 - файла ещё нет. */
+	Map<String, Long> sizes() throws IOException {
+		Map<String, Long> sizes = new HashMap<>();
+		for (Output output : files())
+			sizes.put(output.filename(), Math.max(output.size(), 0));
+		return sizes;
+	}
+
+	/** Выходные файлы, без stdout. */
+	List<Output> files() {
+		return all().stream().filter(output -> output.path() != null).toList();
+	}
+
+	boolean isEmpty() {
+		return all().stream().allMatch(output -> output.count() == 0);
+	}
+
+	void close() {
+		for (Output output : all())
+			output.close();
+	}
+}
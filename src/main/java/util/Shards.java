@@ -0,0 +1,253 @@
+package main.java.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/*
+ * Режим --workers: входные файлы, большие - кусками по границам строк,
+ * делятся на группы подряд идущих кусков примерно равного объёма, и каждую
+ * группу обрабатывает отдельный процесс той же утилиты: на этой машине или
+ * через ssh на другой (входные файлы и каталог результатов должны быть
+ * видны там по тем же путям, например на общем хранилище). Обработчик
+ * пишет выходные файлы, статистику и число записей в свой каталог, а
+ * координатор, дождавшись всех, дописывает их файлы в свои в порядке групп,
+ * поэтому результат тот же, что и при обработке в одном процессе
+ */
+final class Shards {
+
+	/** Обработчик на этой машине, а не через ssh. */
+	static final String LOCAL = "local";
+
+	private static final String RANGES = "ranges.txt";
+	private static final String COUNTS = "counts.properties";
+	private static final String STATS = "stats.properties";
+	private static final String LOG = "log.txt";
+	private static final String MALFORMED = "malformed";
+
+	private final List<String> workers;
+	private final List<String> options;
+	private final Path dir;
+	private final long rangeSize;
+
+	/**
+	 * @param workers {@link #LOCAL} или хост ssh для каждого обработчика
+	 * @param options опции утилиты для обработчиков, кроме входных файлов
+	 * @param dir     каталог для каталогов обработчиков
+	 */
+	Shards(List<String> workers, List<String> options, Path dir, long rangeSize) {
+		this.workers = workers;
+		this.options = options;
+		this.dir = dir;
+		this.rangeSize = rangeSize;
+	}
+
+	/**
+	 * Обрабатывает файлы и дописывает результаты в outputs, а статистику - в
+	 * summary (null - не нужна). Если хоть один обработчик не справился, не
+	 * дописывается ничего, а каталоги обработчиков остаются для разбора.
+	 */
+	void run(List<String> files, Outputs outputs, Stats.Summary summary) throws InterruptedException {
+		List<List<Ingest.Range>> groups = plan(files, workers.size(), rangeSize);
+		List<Process> processes = new ArrayList<>();
+		try {
+			delete(dir);
+			for (int k = 0; k < groups.size(); k++) {
+				Path shard = Files.createDirectories(dir.resolve(String.valueOf(k)));
+				saveRanges(groups.get(k), shard.resolve(RANGES));
+				processes.add(start(workers.get(k), shard, summary != null));
+			}
+		} catch (IOException e) {
+			System.err.println("Не удалось запустить обработчики в " + dir + ": " + e.getMessage());
+			processes.forEach(Process::destroy);
+			return;
+		}
+
+		boolean failed = false;
+		try {
+			for (int k = 0; k < processes.size(); k++) {
+				if (processes.get(k).waitFor() != 0 || !Files.exists(dir.resolve(k + "/" + COUNTS))) {
+					System.err.println("Обработчик " + k + " (" + workers.get(k) + ") завершился с ошибкой, его вывод - в "
+							+ dir.resolve(k + "/" + LOG));
+					failed = true;
+				}
+			}
+		} catch (InterruptedException e) {
+			processes.forEach(Process::destroy);
+			throw e;
+		}
+		if (failed) {
+			System.err.println("Результаты обработчиков не собраны, они остаются в " + dir);
+			return;
+		}
+
+		// статистика проверяется до того, как что-то дописано
+		List<Stats.Summary> partial = new ArrayList<>();
+		List<Properties> counts = new ArrayList<>();
+		try {
+			for (int k = 0; k < processes.size(); k++) {
+				Path shard = dir.resolve(String.valueOf(k));
+				counts.add(load(shard.resolve(COUNTS)));
+				if (summary != null)
+					partial.add(Stats.Summary.load(shard.resolve(STATS)));
+			}
+		} catch (IOException e) {
+			System.err.println("Не удалось прочитать результаты обработчиков в " + dir + ", они там и остаются");
+			return;
+		}
+		for (int k = 0; k < processes.size(); k++) {
+			Path shard = dir.resolve(String.valueOf(k));
+			for (Output output : outputs.files()) {
+				Path file = shard.resolve(output.filename());
+				if (Files.exists(file))
+					output.append(file, Long.parseLong(counts.get(k).getProperty(output.filename(), "0")));
+			}
+			outputs.addMalformed(Long.parseLong(counts.get(k).getProperty(MALFORMED, "0")));
+			if (summary != null)
+				summary.merge(partial.get(k));
+		}
+		if (outputs.failed()) {
+			System.err.println("Результаты обработчиков остаются в " + dir);
+			return;
+		}
+		try {
+			delete(dir);
+		} catch (IOException e) {
+			System.err.println("Не удалось удалить каталог обработчиков " + dir);
+		}
+	}
+
+	/** Куски файлов по порядку, разделённые на не больше чем groups групп подряд. */
+	static List<List<Ingest.Range>> plan(List<String> files, int groups, long rangeSize) {
+		List<Ingest.Range> ranges = new ArrayList<>();
+		for (String filename : files)
+			ranges.addAll(Ingest.split(Path.of(filename).toAbsolutePath().toString(), rangeSize));
+		long total = 0;
+		for (Ingest.Range range : ranges)
+			total += size(range);
+
+		List<List<Ingest.Range>> plan = new ArrayList<>();
+		List<Ingest.Range> group = new ArrayList<>();
+		long done = 0;
+		for (Ingest.Range range : ranges) {
+			group.add(range);
+			done += size(range);
+			// группа k заканчивается, когда набрано k + 1 долей всего объёма
+			if (plan.size() < groups - 1 && (double) done * groups >= (double) total * (plan.size() + 1)) {
+				plan.add(group);
+				group = new ArrayList<>();
+			}
+		}
+		if (!group.isEmpty())
+			plan.add(group);
+		return plan;
+	}
+
+	private static long size(Ingest.Range range) {
+		if (range.end() >= 0)
+			return range.end() - range.start();
+		try {
+			return Files.size(Path.of(range.filename()));
+		} catch (IOException e) {
+			// ошибку сообщит обработчик
+			return 0;
+		}
+	}
+
+	private Process start(String worker, Path shard, boolean stats) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(worker.equals(LOCAL) ? ProcessHandle.current().info().command().orElse("java") : "java");
+		command.add("-cp");
+		command.add(classpath());
+		command.add(Util.class.getName());
+		command.addAll(options);
+		if (stats) {
+			command.add("--stats-save");
+			command.add(shard.resolve(STATS).toString());
+		}
+		command.add("--shard");
+		command.add(shard.toString());
+		if (!worker.equals(LOCAL)) {
+			// ssh передаёт команду оболочке на той стороне одной строкой
+			command = List.of("ssh", worker, String.join(" ", command.stream().map(Shards::quote).toList()));
+		}
+		return new ProcessBuilder(command).redirectOutput(shard.resolve(LOG).toFile())
+				.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+	}
+
+	private static String classpath() throws IOException {
+		try {
+			return Path.of(Util.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+		} catch (URISyntaxException | SecurityException e) {
+			throw new IOException("Не удалось определить путь к утилите", e);
+		}
+	}
+
+	private static String quote(String arg) {
+		return "'" + arg.replace("'", "'\\''") + "'";
+	}
+
+	private static void saveRanges(List<Ingest.Range> ranges, Path file) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			for (Ingest.Range range : ranges) {
+				writer.write(range.start() + "\t" + range.end() + "\t" + range.filename());
+				writer.newLine();
+			}
+		}
+	}
+
+	/** Куски файлов, которые достались обработчику с каталогом shard. */
+	static List<Ingest.Range> ranges(Path shard) throws IOException {
+		List<Ingest.Range> ranges = new ArrayList<>();
+		try {
+			for (String line : Files.readAllLines(shard.resolve(RANGES), StandardCharsets.UTF_8)) {
+				String[] fields = line.split("\t", 3);
+				ranges.add(new Ingest.Range(fields[2], Long.parseLong(fields[0]), Long.parseLong(fields[1]), false));
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("Повреждённый файл " + shard.resolve(RANGES), e);
+		}
+		return ranges;
+	}
+
+	/**
+	 * Число записей в каждом выходном файле обработчика; по этому файлу
+	 * координатор и узнаёт, что обработчик всё записал.
+	 */
+	static void saveCounts(Outputs outputs, Path shard) throws IOException {
+		Properties props = new Properties();
+		for (Output output : outputs.files())
+			props.setProperty(output.filename(), String.valueOf(output.count()));
+		props.setProperty(MALFORMED, String.valueOf(outputs.malformed()));
+		try (Writer writer = Files.newBufferedWriter(shard.resolve(COUNTS), StandardCharsets.UTF_8)) {
+			props.store(writer, "sorting-util shard");
+		}
+	}
+
+	private static Properties load(Path file) throws IOException {
+		Properties props = new Properties();
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			props.load(reader);
+		}
+		return props;
+	}
+
+	private static void delete(Path dir) throws IOException {
+		if (!Files.exists(dir))
+			return;
+		try (Stream<Path> paths = Files.walk(dir)) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+				Files.delete(path);
+		}
+	}
+}
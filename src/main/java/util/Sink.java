@@ -0,0 +1,26 @@
+package main.java.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Получатель классифицированных записей от {@link Engine}. Запись передаётся
+ * как байты UTF-8 [start, end) буфера, который принадлежит движку и будет
+ * переиспользован после возврата из accept, поэтому без копирования на
+ * каждую запись можно обойтись, только если обработать её сразу. Числа
+ * переданы без пробелов по краям, у дробных разделитель - точка; строки -
+ * как во входных данных. Готовые получатели - в {@link Sinks}.
+ */
+@FunctionalInterface
+public interface Sink {
+
+	/**
+	 * @param category {@link Engine#INTEGERS}, {@link Engine#FLOATS},
+	 *                 {@link Engine#STRINGS} или номер категории из
+	 *                 {@link Categories}, увеличенный на {@link Engine#CUSTOM}
+	 */
+	void accept(int category, ByteBuffer buf, int start, int end);
+
+	/** Вызывается, когда записей больше не будет. */
+	default void close() {
+	}
+}
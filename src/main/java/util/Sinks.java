@@ -0,0 +1,82 @@
+package main.java.util;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+import main.java.util.Classifier.Kind;
+
+/**
+ * Готовые получатели записей. Получатель из {@link #files} не потокобезопасен
+ * и служит одному сеансу {@link Engine}; {@link Memory} можно отдавать
+ * нескольким сеансам сразу.
+ */
+public final class Sinks {
+
+	private Sinks() {
+	}
+
+	/**
+	 * Файлы {@code <префикс>integers.txt}, floats.txt, strings.txt и по файлу
+	 * на категорию, как у утилиты; файлы закрываются в {@link Sink#close()}.
+	 *
+	 * @param append     дописывать в существующие файлы
+	 * @param categories те же категории, что у движка (null - нет)
+	 */
+	public static Sink files(Path dir, String prefix, boolean append, Categories categories) {
+		return files(new Outputs(dir, prefix, append, Output.Options.DEFAULT, categories));
+	}
+
+	static Sink files(Outputs outputs) {
+		return new Sink() {
+			@Override
+			public void accept(int category, ByteBuffer buf, int start, int end) {
+				switch (category) {
+					case Engine.INTEGERS -> outputs.accept(Kind.INTEGER, buf, start, end);
+					case Engine.FLOATS -> outputs.accept(Kind.FLOAT, buf, start, end);
+					case Engine.STRINGS -> outputs.accept(Kind.STRING, buf, start, end);
+					default -> outputs.accept(category - Engine.CUSTOM, buf, start, end);
+				}
+			}
+
+			@Override
+			public void close() {
+				outputs.close();
+			}
+		};
+	}
+
+	/** Записи, декодированные в String, для обработчиков, которым копия не мешает. */
+	public static Sink callback(ObjIntConsumer<String> consumer) {
+		return (category, buf, start, end) -> consumer.accept(decode(buf, start, end), category);
+	}
+
+	public static Memory memory() {
+		return new Memory();
+	}
+
+	/** Записи в памяти, по спискам на категорию. */
+	public static final class Memory implements Sink {
+		private final List<List<String>> values = new ArrayList<>();
+
+		@Override
+		public synchronized void accept(int category, ByteBuffer buf, int start, int end) {
+			while (values.size() <= category)
+				values.add(new ArrayList<>());
+			values.get(category).add(decode(buf, start, end));
+		}
+
+		/** Записи категории в порядке поступления; копия. */
+		public synchronized List<String> get(int category) {
+			return category < values.size() ? List.copyOf(values.get(category)) : List.of();
+		}
+	}
+
+	private static String decode(ByteBuffer buf, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		buf.get(start, bytes);
+		return new String(bytes, Util.encoding);
+	}
+}
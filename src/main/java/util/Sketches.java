@@ -0,0 +1,419 @@
+package main.java.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+
+import main.java.util.Classifier.Kind;
+
+/*
+ * Приближённая статистика с ограниченной памятью, которая считается за тот же
+ * проход, что и классификация: квантили чисел (KLL), количество различных
+ * записей (HyperLogLog) и гистограмма длин строк. Как и накопители Stats,
+ * скетчи объединяются через merge и сохраняются в Properties
+ */
+public final class Sketches {
+
+	private final Quantiles intQuantiles = new Quantiles();
+	private final Quantiles decQuantiles = new Quantiles();
+	private final Distinct intDistinct = new Distinct();
+	private final Distinct decDistinct = new Distinct();
+	private final Distinct strDistinct = new Distinct();
+	private final long[] lengths = new long[33];
+
+	public Quantiles intQuantiles() {
+		return intQuantiles;
+	}
+
+	public Quantiles decQuantiles() {
+		return decQuantiles;
+	}
+
+	public Distinct intDistinct() {
+		return intDistinct;
+	}
+
+	public Distinct decDistinct() {
+		return decDistinct;
+	}
+
+	public Distinct strDistinct() {
+		return strDistinct;
+	}
+
+	/** Количество строк по диапазонам длины: [0], [1], [2, 3], [4, 7], ... */
+	public long[] lengths() {
+		return lengths.clone();
+	}
+
+	/** Нижняя граница диапазона длин с номером bucket из lengths(). */
+	public static int lengthFrom(int bucket) {
+		return bucket == 0 ? 0 : 1 << (bucket - 1);
+	}
+
+	public void add(Kind kind, String value) {
+		switch (kind) {
+			case INTEGER -> {
+				intQuantiles.add(value.length() <= 18 ? Long.parseLong(value) : Double.parseDouble(value));
+				intDistinct.add(hash(value));
+			}
+			case FLOAT -> {
+				addDecimal(value);
+				decDistinct.add(hash(value));
+			}
+			default -> {
+				strDistinct.add(hash(value));
+				lengths[bucket(value.length())]++;
+			}
+		}
+	}
+
+	public void add(Kind kind, ByteBuffer buf, int start, int end) {
+		switch (kind) {
+			case INTEGER -> {
+				intQuantiles.add(end - start <= 18 ? parseLong(buf, start, end) : Double.parseDouble(ascii(buf, start, end)));
+				intDistinct.add(hash(buf, start, end, false));
+			}
+			case FLOAT -> {
+				addDecimal(ascii(buf, start, end));
+				decDistinct.add(hash(buf, start, end, true));
+			}
+			default -> {
+				strDistinct.add(hash(buf, start, end, false));
+				lengths[bucket(utf16Length(buf, start, end))]++;
+			}
+		}
+	}
+
+	private void addDecimal(String value) {
+		try {
+			decQuantiles.add(Double.parseDouble(value));
+		} catch (NumberFormatException e) {
+			// "-" и "e5" классификатор тоже считает дробными, у них нет значения
+		}
+	}
+
+	public void merge(Sketches other) {
+		intQuantiles.merge(other.intQuantiles);
+		decQuantiles.merge(other.decQuantiles);
+		intDistinct.merge(other.intDistinct);
+		decDistinct.merge(other.decDistinct);
+		strDistinct.merge(other.strDistinct);
+		for (int i = 0; i < lengths.length; i++)
+			lengths[i] += other.lengths[i];
+	}
+
+	void save(Properties props, String key) {
+		intQuantiles.save(props, key + ".integers.quantiles");
+		decQuantiles.save(props, key + ".floats.quantiles");
+		intDistinct.save(props, key + ".integers.distinct");
+		decDistinct.save(props, key + ".floats.distinct");
+		strDistinct.save(props, key + ".strings.distinct");
+		StringBuilder sb = new StringBuilder();
+		for (long count : lengths)
+			sb.append(sb.isEmpty() ? "" : ",").append(count);
+		props.setProperty(key + ".strings.lengths", sb.toString());
+	}
+
+	static boolean isSaved(Properties props, String key) {
+		return props.containsKey(key + ".strings.lengths");
+	}
+
+	void load(Properties props, String key) {
+		Sketches other = new Sketches();
+		other.intQuantiles.load(props, key + ".integers.quantiles");
+		other.decQuantiles.load(props, key + ".floats.quantiles");
+		other.intDistinct.load(props, key + ".integers.distinct");
+		other.decDistinct.load(props, key + ".floats.distinct");
+		other.strDistinct.load(props, key + ".strings.distinct");
+		String[] counts = props.getProperty(key + ".strings.lengths").split(",");
+		for (int i = 0; i < other.lengths.length; i++)
+			other.lengths[i] = Long.parseLong(counts[i]);
+		merge(other);
+	}
+
+	private static int bucket(int length) {
+		return 32 - Integer.numberOfLeadingZeros(length);
+	}
+
+	private static long parseLong(ByteBuffer buf, int start, int end) {
+		boolean neg = buf.get(start) == '-';
+		long value = 0;
+		for (int i = neg ? start + 1 : start; i < end; i++)
+			value = value * 10 + (buf.get(i) - '0');
+		return neg ? -value : value;
+	}
+
+	private static String ascii(ByteBuffer buf, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		buf.get(start, bytes);
+		for (int i = 0; i < bytes.length; i++)
+			if (bytes[i] == ',')
+				bytes[i] = '.';
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	private static int utf16Length(ByteBuffer buf, int start, int end) {
+		int length = 0;
+		for (int i = start; i < end; i++) {
+			int b = buf.get(i) & 0xff;
+			if ((b & 0xc0) != 0x80)
+				length++;
+			if (b >= 0xf0)
+				length++;
+		}
+		return length;
+	}
+
+	/*
+	 * Хеш по кодовым точкам, чтобы у строки из String и из байтов UTF-8 он был
+	 * одинаковым. В дробных числах из String ',' уже заменена на '.', в байтах
+	 * она заменяется при хешировании
+	 */
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	static long hash(String value) {
+		long h = FNV_OFFSET;
+		for (int i = 0; i < value.length();) {
+			int cp = value.codePointAt(i);
+			h = (h ^ cp) * FNV_PRIME;
+			i += Character.charCount(cp);
+		}
+		return mix(h);
+	}
+
+	static long hash(ByteBuffer buf, int start, int end, boolean decimal) {
+		long h = FNV_OFFSET;
+		for (int i = start; i < end;) {
+			int b = buf.get(i++) & 0xff;
+			int cp;
+			if (b < 0x80) {
+				cp = decimal && b == ',' ? '.' : b;
+			} else if (b < 0xe0) {
+				cp = (b & 0x1f) << 6 | buf.get(i++) & 0x3f;
+			} else if (b < 0xf0) {
+				cp = (b & 0x0f) << 12 | (buf.get(i++) & 0x3f) << 6 | buf.get(i++) & 0x3f;
+			} else {
+				cp = (b & 0x07) << 18 | (buf.get(i++) & 0x3f) << 12 | (buf.get(i++) & 0x3f) << 6 | buf.get(i++) & 0x3f;
+			}
+			h = (h ^ cp) * FNV_PRIME;
+		}
+		return mix(h);
+	}
+
+	// финальное перемешивание из MurmurHash3: у FNV плохо распределены старшие биты
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/*
+	 * KLL-скетч квантилей: уровни-компакторы, на уровне h каждый элемент весит
+	 * 2^h. Заполненный уровень сортируется и половина его элементов (чётные или
+	 * нечётные места) поднимается на уровень выше. Верхние уровни вмещают K
+	 * элементов, каждый следующий вниз - в 2/3 раза меньше. Погрешность ранга
+	 * при K = 200 - порядка 1%
+	 */
+	public static final class Quantiles {
+		private static final int K = 200;
+		private static final int MIN_WIDTH = 8;
+
+		private final List<double[]> levels = new ArrayList<>();
+		private int[] sizes = new int[0];
+		private long count = 0;
+		// детерминированный выбор чётных/нечётных мест, чтобы запуски повторялись
+		private long random = 0x9e3779b97f4a7c15L;
+
+		public long count() {
+			return count;
+		}
+
+		public void add(double value) {
+			append(0, value);
+			count++;
+			if (sizes[0] >= capacity(0))
+				compress();
+		}
+
+		public void merge(Quantiles other) {
+			if (other.count == 0)
+				return;
+			for (int h = 0; h < other.levels.size(); h++)
+				for (int i = 0; i < other.sizes[h]; i++)
+					append(h, other.levels.get(h)[i]);
+			count += other.count;
+			compress();
+		}
+
+		/** Значение, меньше которого примерно доля q всех значений; NaN, если значений нет. */
+		public double quantile(double q) {
+			int total = 0;
+			for (int size : sizes)
+				total += size;
+			if (total == 0)
+				return Double.NaN;
+			double[] values = new double[total];
+			long[] weights = new long[total];
+			Integer[] order = new Integer[total];
+			int n = 0;
+			long weight = 0;
+			for (int h = 0; h < levels.size(); h++) {
+				for (int i = 0; i < sizes[h]; i++) {
+					values[n] = levels.get(h)[i];
+					weights[n] = 1L << h;
+					order[n] = n;
+					weight += 1L << h;
+					n++;
+				}
+			}
+			Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+			double rank = q * weight;
+			long seen = 0;
+			for (int idx : order) {
+				seen += weights[idx];
+				if (seen >= rank)
+					return values[idx];
+			}
+			return values[order[total - 1]];
+		}
+
+		private int capacity(int h) {
+			int depth = levels.size() - 1 - h;
+			return Math.max(MIN_WIDTH, (int) Math.ceil(K * Math.pow(2.0 / 3.0, depth)));
+		}
+
+		private void ensureLevel(int h) {
+			while (levels.size() <= h) {
+				levels.add(new double[MIN_WIDTH]);
+				sizes = Arrays.copyOf(sizes, levels.size());
+			}
+		}
+
+		private void append(int h, double value) {
+			ensureLevel(h);
+			double[] level = levels.get(h);
+			if (sizes[h] == level.length) {
+				level = Arrays.copyOf(level, level.length * 2);
+				levels.set(h, level);
+			}
+			level[sizes[h]++] = value;
+		}
+
+		private void compress() {
+			for (int h = 0; h < levels.size(); h++) {
+				if (sizes[h] >= capacity(h)) {
+					compact(h);
+					// после появления нового уровня ёмкость нижних уменьшается
+					h = -1;
+				}
+			}
+		}
+
+		private void compact(int h) {
+			double[] level = levels.get(h);
+			int size = sizes[h];
+			Arrays.sort(level, 0, size);
+			// при нечётном количестве наименьший элемент остаётся на месте
+			int keep = size % 2;
+			random ^= random << 13;
+			random ^= random >>> 7;
+			random ^= random << 17;
+			int offset = (int) (random & 1);
+			ensureLevel(h + 1);
+			for (int i = keep + offset; i < size; i += 2)
+				append(h + 1, levels.get(h)[i]);
+			sizes[h] = keep;
+		}
+
+		void save(Properties props, String key) {
+			props.setProperty(key + ".count", String.valueOf(count));
+			props.setProperty(key + ".levels", String.valueOf(levels.size()));
+			for (int h = 0; h < levels.size(); h++) {
+				StringBuilder sb = new StringBuilder();
+				for (int i = 0; i < sizes[h]; i++)
+					sb.append(i == 0 ? "" : ",").append(levels.get(h)[i]);
+				props.setProperty(key + ".level." + h, sb.toString());
+			}
+		}
+
+		void load(Properties props, String key) {
+			Quantiles other = new Quantiles();
+			int saved = Integer.parseInt(props.getProperty(key + ".levels"));
+			for (int h = 0; h < saved; h++) {
+				String level = props.getProperty(key + ".level." + h);
+				if (level.isEmpty()) {
+					// пустой уровень всё равно нужен, чтобы веса выше остались 2^h
+					other.ensureLevel(h);
+					continue;
+				}
+				for (String value : level.split(","))
+					other.append(h, Double.parseDouble(value));
+			}
+			other.count = Long.parseLong(props.getProperty(key + ".count"));
+			merge(other);
+		}
+	}
+
+	/*
+	 * HyperLogLog на 2^14 регистрах (16 КБ): погрешность около 0,8%
+	 */
+	public static final class Distinct {
+		private static final int P = 14;
+		private static final int M = 1 << P;
+
+		private final byte[] registers = new byte[M];
+
+		void add(long hash) {
+			int idx = (int) (hash >>> (64 - P));
+			// единица-ограничитель, чтобы ранг не вышел за 64 - P + 1
+			long rest = hash << P | 1L << (P - 1);
+			byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+			if (rank > registers[idx])
+				registers[idx] = rank;
+		}
+
+		public void merge(Distinct other) {
+			for (int i = 0; i < M; i++)
+				if (other.registers[i] > registers[i])
+					registers[i] = other.registers[i];
+		}
+
+		public long estimate() {
+			double sum = 0;
+			int zeros = 0;
+			for (byte r : registers) {
+				sum += 1.0 / (1L << r);
+				if (r == 0)
+					zeros++;
+			}
+			double alpha = 0.7213 / (1 + 1.079 / M);
+			double estimate = alpha * M * M / sum;
+			// на малых количествах точнее линейный подсчёт по пустым регистрам
+			if (estimate <= 2.5 * M && zeros > 0)
+				estimate = M * Math.log((double) M / zeros);
+			return Math.round(estimate);
+		}
+
+		void save(Properties props, String key) {
+			props.setProperty(key, Base64.getEncoder().encodeToString(registers));
+		}
+
+		void load(Properties props, String key) {
+			byte[] saved = Base64.getDecoder().decode(props.getProperty(key));
+			if (saved.length != M)
+				throw new IllegalArgumentException("Неверный размер скетча " + key);
+			Distinct other = new Distinct();
+			System.arraycopy(saved, 0, other.registers, 0, M);
+			merge(other);
+		}
+	}
+}
@@ -1,10 +1,24 @@
 package main.java.util;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.MathContext;
 import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import main.java.util.Classifier.Kind;
 
 public final class Stats {
 	
@@ -12,8 +26,9 @@ public final class Stats {
 	
 	public record IntResult(String min, String max, BigInteger sum, BigDecimal avg) {}
 	public record DecResult(BigDecimal min, BigDecimal max, BigDecimal sum, BigDecimal avg) {}
+	public record StrResult(int minLen, int maxLen) {}
 
-	private static int compareIntStr(String a, String b) {
+	static int compareIntStr(String a, String b) {
 		boolean negA = a.startsWith("-");
 		boolean negB = b.startsWith("-");
 
@@ -30,59 +45,776 @@ public final class Stats {
 		return negA ? b.compareTo(a) : a.compareTo(b);
 	}
 
-	public IntResult intStats(Collection<String> strNums) {
-		String max = String.valueOf(Long.MIN_VALUE);
-		String min = String.valueOf(Long.MAX_VALUE);
-		Long sum = 0L;
-		BigInteger sumBig = null;
-		BigDecimal avg = null;
-
-		for (String strNum : strNums) {
-			
-			if (compareIntStr(strNum, min) < 0)
-				min = strNum;
-			if (compareIntStr(strNum, max) > 0)
-				max = strNum;
-
-			/*
-			 * считаем в long до тех пор, пока не выходим из допустимого диапазона, чтобы не
-			 * тратить лишние ресурсы на biginteger, если числа небольшие
-			 */
-			if (sumBig == null) {
-				try {
-					sum += Long.parseLong(strNum);
-				} catch (NumberFormatException | ArithmeticException e) {
-					sumBig = new BigInteger(strNum).add(BigInteger.valueOf(sum));
+	/*
+	 * накопители принимают значения по одному, чтобы статистику можно было
+	 * считать по ходу чтения, не храня все записи в памяти. Пока значения и
+	 * сумма помещаются в long, всё считается в примитивах; числа вне диапазона
+	 * long и переполнения суммы уходят в один изменяемый WideSum
+	 */
+	public static final class IntAccumulator {
+		private long count = 0;
+		private boolean hasLong = false;
+		private long minLong = Long.MAX_VALUE;
+		private long maxLong = Long.MIN_VALUE;
+		// значения вне диапазона long, только для них создаются строки
+		private String minWide = null;
+		private String maxWide = null;
+		private long sum = 0L;
+		private final WideSum wide = new WideSum();
+		private final Scratch scratch = new Scratch();
+
+		public void add(String strNum) {
+			add(strNum, 0, strNum.length());
+		}
+
+		public void add(CharSequence s, int start, int end) {
+			add(scratch.of(s, start, end), end - start);
+		}
+
+		public void add(ByteBuffer buf, int start, int end) {
+			add(scratch.of(buf, start, end), end - start);
+		}
+
+		private void add(byte[] s, int len) {
+			boolean neg = len > 0 && s[0] == '-';
+			int from = neg ? 1 : 0;
+			int digits = len - from;
+			if (digits == 0)
+				throw notANumber(s, len);
+
+			if (digits <= 19) {
+				// 19 цифр меньше 2^64, поэтому модуль помещается в long без знака
+				long mag = 0;
+				for (int i = from; i < len; i++)
+					mag = mag * 10 + digit(s, i, len);
+				if (digits < 19 || (neg ? Long.compareUnsigned(mag, Long.MIN_VALUE) <= 0 : mag >= 0)) {
+					addLong(neg ? -mag : mag);
+					return;
 				}
+			}
+			for (int i = from; i < len; i++)
+				digit(s, i, len);
+			addWide(s, len, neg);
+		}
+
+		private void addLong(long v) {
+			count++;
+			trackLong(v);
+			addToSum(v);
+		}
+
+		private void trackLong(long v) {
+			hasLong = true;
+			if (v < minLong)
+				minLong = v;
+			if (v > maxLong)
+				maxLong = v;
+		}
+
+		private void addToSum(long v) {
+			long r = sum + v;
+			if (((sum ^ r) & (v ^ r)) < 0) {
+				// переполнение: накопленное уходит в WideSum, а long начинает заново
+				wide.add(sum);
+				sum = v;
 			} else {
-				sumBig = sumBig.add(new BigInteger(strNum));
+				sum = r;
+			}
+		}
+
+		private void addWide(byte[] s, int len, boolean neg) {
+			count++;
+			trackWide(new String(s, 0, len, StandardCharsets.ISO_8859_1));
+			wide.addDigits(s, neg ? 1 : 0, len, neg);
+		}
+
+		private void trackWide(String str) {
+			if (minWide == null || compareIntStr(str, minWide) < 0)
+				minWide = str;
+			if (maxWide == null || compareIntStr(str, maxWide) > 0)
+				maxWide = str;
+		}
+
+		/** Добавляет к этому накопителю значения, учтённые в other. */
+		public void merge(IntAccumulator other) {
+			count += other.count;
+			if (other.hasLong) {
+				trackLong(other.minLong);
+				trackLong(other.maxLong);
+			}
+			if (other.minWide != null) {
+				trackWide(other.minWide);
+				trackWide(other.maxWide);
+			}
+			addToSum(other.sum);
+			wide.merge(other.wide);
+		}
+
+		public long count() {
+			return count;
+		}
+
+		void save(Properties props, String key) {
+			props.setProperty(key + ".count", String.valueOf(count));
+			if (count == 0)
+				return;
+			IntResult res = result();
+			props.setProperty(key + ".min", res.min());
+			props.setProperty(key + ".max", res.max());
+			props.setProperty(key + ".sum", res.sum().toString());
+		}
+
+		void load(Properties props, String key) {
+			long saved = Long.parseLong(props.getProperty(key + ".count", "0"));
+			if (saved == 0)
+				return;
+			IntAccumulator other = new IntAccumulator();
+			// add здесь нужен только ради min и max, количество и сумма задаются ниже
+			other.add(props.getProperty(key + ".min"));
+			other.add(props.getProperty(key + ".max"));
+			other.count = saved;
+			other.sum = 0;
+			other.wide.clear();
+			String sum = props.getProperty(key + ".sum");
+			boolean neg = sum.startsWith("-");
+			byte[] digits = sum.getBytes(StandardCharsets.ISO_8859_1);
+			other.wide.addDigits(digits, neg ? 1 : 0, digits.length, neg);
+			merge(other);
+		}
+
+		public IntResult result() {
+			String min = hasLong ? String.valueOf(minLong) : minWide;
+			String max = hasLong ? String.valueOf(maxLong) : maxWide;
+			if (hasLong && minWide != null && compareIntStr(minWide, min) < 0)
+				min = minWide;
+			if (hasLong && maxWide != null && compareIntStr(maxWide, max) > 0)
+				max = maxWide;
+			BigInteger total = wide.toBigInteger().add(BigInteger.valueOf(sum));
+			BigDecimal avg = new BigDecimal(total).divide(new BigDecimal(count), mc);
+			return new IntResult(min, max, total, avg);
+		}
+	}
+
+	/*
+	 * Сумма произвольной длины без аллокаций на каждое слагаемое: положительные
+	 * и отрицательные слагаемые копятся отдельно, в разрядах по основанию 10^18,
+	 * поэтому десятичные цифры складываются напрямую, без перевода в двоичный вид
+	 */
+	static final class WideSum {
+		private static final long BASE = 1_000_000_000_000_000_000L;
+		private static final int BASE_DIGITS = 18;
+
+		private long[] pos = new long[4];
+		private long[] neg = new long[4];
+
+		void add(long v) {
+			if (v == 0)
+				return;
+			long mag = v < 0 ? -v : v; // для Long.MIN_VALUE это 2^63 без знака
+			addAt(v < 0, 0, Long.remainderUnsigned(mag, BASE));
+			addAt(v < 0, 1, Long.divideUnsigned(mag, BASE));
+		}
+
+		/** Добавляет модуль, записанный цифрами ASCII s[start, end). */
+		void addDigits(byte[] s, int start, int end, boolean negative) {
+			int limb = 0;
+			for (int to = end; to > start; to -= BASE_DIGITS, limb++) {
+				int from = Math.max(start, to - BASE_DIGITS);
+				long chunk = 0;
+				for (int i = from; i < to; i++)
+					chunk = chunk * 10 + (s[i] - '0');
+				addAt(negative, limb, chunk);
+			}
+		}
+
+		private void addAt(boolean negative, int i, long value) {
+			long carry = value;
+			while (carry != 0) {
+				long[] limbs = negative ? neg : pos;
+				if (i >= limbs.length) {
+					limbs = Arrays.copyOf(limbs, Math.max(i + 1, 2 * limbs.length));
+					if (negative)
+						neg = limbs;
+					else
+						pos = limbs;
+				}
+				long r = limbs[i] + carry;
+				limbs[i] = r % BASE;
+				carry = r / BASE;
+				i++;
+			}
+		}
+
+		void merge(WideSum other) {
+			for (int i = 0; i < other.pos.length; i++)
+				addAt(false, i, other.pos[i]);
+			for (int i = 0; i < other.neg.length; i++)
+				addAt(true, i, other.neg[i]);
+		}
+
+		void clear() {
+			Arrays.fill(pos, 0);
+			Arrays.fill(neg, 0);
+		}
+
+		BigInteger toBigInteger() {
+			return toBigInteger(pos).subtract(toBigInteger(neg));
+		}
+
+		private static BigInteger toBigInteger(long[] limbs) {
+			BigInteger base = BigInteger.valueOf(BASE);
+			BigInteger res = BigInteger.ZERO;
+			for (int i = limbs.length - 1; i >= 0; i--)
+				res = res.multiply(base).add(BigInteger.valueOf(limbs[i]));
+			return res;
+		}
+	}
+
+	/*
+	 * Числа с плавающей запятой хранятся как BigDecimal без объекта: long с
+	 * цифрами и scale. Сумма ведётся с масштабом, равным наибольшему из
+	 * встреченных (как у BigDecimal.add), и переходит в BigDecimal только при
+	 * переполнении long; так же и значения, которые в long не помещаются
+	 */
+	public static final class DecAccumulator {
+		private long count = 0;
+		private boolean tracked = false;
+		private boolean minCompact;
+		private long minUnscaled;
+		private int minScale;
+		private BigDecimal minBig;
+		private boolean maxCompact;
+		private long maxUnscaled;
+		private int maxScale;
+		private BigDecimal maxBig;
+		private long sumUnscaled = 0;
+		private int sumScale = 0;
+		private BigDecimal wideSum = null;
+		private final Scratch scratch = new Scratch();
+
+		// результат разбора: parsedCompact == false - значение в parsedBig
+		private boolean parsedCompact;
+		private long parsedUnscaled;
+		private int parsedScale;
+		private BigDecimal parsedBig;
+
+		public void add(String strNum) {
+			add(strNum, 0, strNum.length());
+		}
+
+		/** Число в формате decEx; ',' считается десятичной точкой. */
+		public void add(CharSequence s, int start, int end) {
+			add(scratch.of(s, start, end), end - start);
+		}
+
+		public void add(ByteBuffer buf, int start, int end) {
+			add(scratch.of(buf, start, end), end - start);
+		}
+
+		private void add(byte[] s, int len) {
+			parse(s, len);
+			count++;
+			if (parsedCompact)
+				addCompact(parsedUnscaled, parsedScale);
+			else
+				addBig(parsedBig);
+		}
+
+		private void parse(byte[] s, int end) {
+			int i = 0;
+			boolean neg = i < end && s[i] == '-';
+			if (neg)
+				i++;
+			long unscaled = 0;
+			int fraction = 0;
+			int digits = 0;
+			boolean point = false;
+			boolean overflow = false;
+			for (; i < end; i++) {
+				byte c = s[i];
+				if (c == '.' || c == ',') {
+					if (point)
+						throw notANumber(s, end);
+					point = true;
+					continue;
+				}
+				if (c == 'e' || c == 'E')
+					break;
+				int d = digit(s, i, end);
+				digits++;
+				if (point)
+					fraction++;
+				if (unscaled > (Long.MAX_VALUE - d) / 10)
+					overflow = true;
+				else
+					unscaled = unscaled * 10 + d;
+			}
+			if (digits == 0)
+				throw notANumber(s, end);
+
+			long exp = 0;
+			if (i < end) {
+				i++;
+				boolean expNeg = i < end && s[i] == '-';
+				if (expNeg)
+					i++;
+				if (i == end)
+					throw notANumber(s, end);
+				for (; i < end; i++) {
+					exp = exp * 10 + digit(s, i, end);
+					if (exp > Integer.MAX_VALUE)
+						overflow = true;
+				}
+				if (expNeg)
+					exp = -exp;
+			}
+
+			long scale = fraction - exp;
+			if (overflow || scale != (int) scale) {
+				parsedCompact = false;
+				parsedBig = new BigDecimal(new String(s, 0, end, StandardCharsets.ISO_8859_1).replace(',', '.'));
+			} else {
+				parsedCompact = true;
+				parsedUnscaled = neg ? -unscaled : unscaled;
+				parsedScale = (int) scale;
+			}
+		}
+
+		private void addCompact(long unscaled, int scale) {
+			trackCompact(unscaled, scale);
+			addToSum(unscaled, scale);
+		}
+
+		private void trackCompact(long unscaled, int scale) {
+			if (!tracked || (minCompact ? compareCompact(unscaled, scale, minUnscaled, minScale) < 0
+					: BigDecimal.valueOf(unscaled, scale).compareTo(minBig) < 0)) {
+				minCompact = true;
+				minUnscaled = unscaled;
+				minScale = scale;
+			}
+			if (!tracked || (maxCompact ? compareCompact(unscaled, scale, maxUnscaled, maxScale) > 0
+					: BigDecimal.valueOf(unscaled, scale).compareTo(maxBig) > 0)) {
+				maxCompact = true;
+				maxUnscaled = unscaled;
+				maxScale = scale;
+			}
+			tracked = true;
+		}
+
+		private void addToSum(long unscaled, int scale) {
+			int target = Math.max(sumScale, scale);
+			long a = scaleUp(sumUnscaled, (long) target - sumScale);
+			long b = scaleUp(unscaled, (long) target - scale);
+			if (a != OVERFLOW && b != OVERFLOW) {
+				long r = a + b;
+				if (((a ^ r) & (b ^ r)) >= 0) {
+					sumUnscaled = r;
+					sumScale = target;
+					return;
+				}
+			}
+
+			// накопленное уже не помещается в long - переносим его в BigDecimal
+			flushSum();
+			int scaleFrom = Math.max(0, scale);
+			long c = scaleUp(unscaled, (long) scaleFrom - scale);
+			if (c != OVERFLOW) {
+				sumUnscaled = c;
+				sumScale = scaleFrom;
+			} else {
+				wideSum = wideSum.add(BigDecimal.valueOf(unscaled, scale));
+			}
+		}
+
+		private void addBig(BigDecimal num) {
+			trackBig(num);
+			flushSum();
+			wideSum = wideSum.add(num);
+		}
+
+		private void trackBig(BigDecimal num) {
+			if (!tracked || num.compareTo(min()) < 0) {
+				minCompact = false;
+				minBig = num;
+			}
+			if (!tracked || num.compareTo(max()) > 0) {
+				maxCompact = false;
+				maxBig = num;
+			}
+			tracked = true;
+		}
+
+		/** Добавляет к этому накопителю значения, учтённые в other. */
+		public void merge(DecAccumulator other) {
+			if (other.count == 0)
+				return;
+			count += other.count;
+			if (other.minCompact)
+				trackCompact(other.minUnscaled, other.minScale);
+			else
+				trackBig(other.minBig);
+			if (other.maxCompact)
+				trackCompact(other.maxUnscaled, other.maxScale);
+			else
+				trackBig(other.maxBig);
+
+			addToSum(other.sumUnscaled, other.sumScale);
+			if (other.wideSum != null) {
+				flushSum();
+				wideSum = wideSum.add(other.wideSum);
 			}
 		}
 
-		if (sumBig == null) {
-			avg = new BigDecimal(sum).divide(new BigDecimal(strNums.size()), mc);
-		} else {
-			avg = new BigDecimal(sumBig).divide(new BigDecimal(strNums.size()), mc);
+		void save(Properties props, String key) {
+			props.setProperty(key + ".count", String.valueOf(count));
+			if (count == 0)
+				return;
+			BigDecimal compact = BigDecimal.valueOf(sumUnscaled, sumScale);
+			props.setProperty(key + ".min", min().toString());
+			props.setProperty(key + ".max", max().toString());
+			props.setProperty(key + ".sum", (wideSum == null ? compact : wideSum.add(compact)).toString());
 		}
-		
-		return new IntResult(min, max, (sumBig == null ? BigInteger.valueOf(sum) : sumBig), avg);
+
+		void load(Properties props, String key) {
+			long saved = Long.parseLong(props.getProperty(key + ".count", "0"));
+			if (saved == 0)
+				return;
+			DecAccumulator other = new DecAccumulator();
+			// min и max сохранены через BigDecimal.toString и могут быть в виде 1E+5,
+			// который разбор входных строк не принимает
+			other.trackBig(new BigDecimal(props.getProperty(key + ".min")));
+			other.trackBig(new BigDecimal(props.getProperty(key + ".max")));
+			other.count = saved;
+			other.sumUnscaled = 0;
+			other.sumScale = 0;
+			other.wideSum = new BigDecimal(props.getProperty(key + ".sum"));
+			merge(other);
+		}
+
+		private void flushSum() {
+			BigDecimal compact = BigDecimal.valueOf(sumUnscaled, sumScale);
+			wideSum = wideSum == null ? compact : wideSum.add(compact);
+			sumUnscaled = 0;
+			sumScale = 0;
+		}
+
+		private BigDecimal min() {
+			return minCompact ? BigDecimal.valueOf(minUnscaled, minScale) : minBig;
+		}
+
+		private BigDecimal max() {
+			return maxCompact ? BigDecimal.valueOf(maxUnscaled, maxScale) : maxBig;
+		}
+
+		public long count() {
+			return count;
+		}
+
+		public DecResult result() {
+			BigDecimal compact = BigDecimal.valueOf(sumUnscaled, sumScale);
+			BigDecimal sum = wideSum == null ? compact : wideSum.add(compact);
+			BigDecimal avg = sum.divide(new BigDecimal(count), mc);
+			return new DecResult(min(), max(), sum.round(mc), avg);
+		}
+	}
+
+	private static final long[] POWERS_OF_TEN = new long[19];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	// признак переполнения в scaleUp; само значение Long.MIN_VALUE тоже считается переполнением
+	private static final long OVERFLOW = Long.MIN_VALUE;
+
+	/** value * 10^n или OVERFLOW, если результат не помещается в long. */
+	private static long scaleUp(long value, long n) {
+		if (value == 0 || n == 0)
+			return value;
+		if (n >= POWERS_OF_TEN.length)
+			return OVERFLOW;
+		long p = POWERS_OF_TEN[(int) n];
+		long hi = Math.multiplyHigh(value, p);
+		long lo = value * p;
+		if (hi != (lo >> 63))
+			return OVERFLOW;
+		return lo;
+	}
+
+	private static int compareCompact(long u1, int s1, long u2, int s2) {
+		if (s1 == s2)
+			return Long.compare(u1, u2);
+		if (Long.signum(u1) != Long.signum(u2))
+			return Integer.compare(Long.signum(u1), Long.signum(u2));
+		long a = s1 < s2 ? scaleUp(u1, (long) s2 - s1) : u1;
+		long b = s2 < s1 ? scaleUp(u2, (long) s1 - s2) : u2;
+		if (a == OVERFLOW || b == OVERFLOW)
+			return BigDecimal.valueOf(u1, s1).compareTo(BigDecimal.valueOf(u2, s2));
+		return Long.compare(a, b);
+	}
+
+	private static int digit(byte[] s, int i, int len) {
+		int d = s[i] - '0';
+		if (d < 0 || d > 9)
+			throw notANumber(s, len);
+		return d;
+	}
+
+	private static NumberFormatException notANumber(byte[] s, int len) {
+		return new NumberFormatException("Не число: " + new String(s, 0, len, StandardCharsets.ISO_8859_1));
+	}
+
+	/*
+	 * число копируется в переиспользуемый массив байт ASCII: так разбор идёт по
+	 * массиву, а не через CharSequence.charAt или ByteBuffer.get на каждый символ
+	 */
+	private static final class Scratch {
+		private byte[] bytes = new byte[64];
+
+		byte[] of(CharSequence s, int start, int end) {
+			int len = end - start;
+			ensure(len);
+			for (int i = 0; i < len; i++) {
+				char c = s.charAt(start + i);
+				// символы не из ASCII превращаются в заведомо не цифру
+				bytes[i] = c < 128 ? (byte) c : (byte) '?';
+			}
+			return bytes;
+		}
+
+		byte[] of(ByteBuffer buf, int start, int end) {
+			ensure(end - start);
+			buf.get(start, bytes, 0, end - start);
+			return bytes;
+		}
+
+		private void ensure(int len) {
+			if (bytes.length < len)
+				bytes = new byte[Math.max(len, 2 * bytes.length)];
+		}
+	}
+
+	public static final class StrAccumulator {
+		private int maxLen = 0;
+		private int minLen = Integer.MAX_VALUE;
+		private long count = 0;
+
+		public void add(String string) {
+			addLength(string.length());
+		}
+
+		/** Строка в UTF-8 из буфера; длина считается в символах UTF-16, как у String.length(). */
+		public void add(ByteBuffer buf, int start, int end) {
+			int length = 0;
+			for (int i = start; i < end; i++) {
+				int b = buf.get(i) & 0xff;
+				if ((b & 0xc0) != 0x80)
+					length++;
+				if (b >= 0xf0)
+					length++;
+			}
+			addLength(length);
+		}
+
+		public void addLength(int l) {
+			if (l > maxLen)
+				maxLen = l;
+			if (l < minLen)
+				minLen = l;
+			count++;
+		}
+
+		public long count() {
+			return count;
+		}
+
+		public void merge(StrAccumulator other) {
+			if (other.count == 0)
+				return;
+			minLen = Math.min(minLen, other.minLen);
+			maxLen = Math.max(maxLen, other.maxLen);
+			count += other.count;
+		}
+
+		public StrResult result() {
+			return new StrResult(minLen, maxLen);
+		}
+
+		void save(Properties props, String key) {
+			props.setProperty(key + ".count", String.valueOf(count));
+			if (count == 0)
+				return;
+			props.setProperty(key + ".minLen", String.valueOf(minLen));
+			props.setProperty(key + ".maxLen", String.valueOf(maxLen));
+		}
+
+		void load(Properties props, String key) {
+			StrAccumulator other = new StrAccumulator();
+			other.count = Long.parseLong(props.getProperty(key + ".count", "0"));
+			if (other.count == 0)
+				return;
+			other.minLen = Integer.parseInt(props.getProperty(key + ".minLen"));
+			other.maxLen = Integer.parseInt(props.getProperty(key + ".maxLen"));
+			merge(other);
+		}
+	}
+
+	/*
+	 * Статистика по всем категориям сразу. Частичные результаты (по потокам,
+	 * файлам или отдельным запускам) объединяются через merge, а между запусками
+	 * передаются через небольшой файл в формате Properties
+	 */
+	public static final class Summary {
+		private final IntAccumulator ints = new IntAccumulator();
+		private final DecAccumulator decimals = new DecAccumulator();
+		private final StrAccumulator strings = new StrAccumulator();
+		// квантили, различные значения и длины строк; null - не считаются
+		private final Sketches sketches;
+		// длины записей пользовательских категорий по именам и по номерам в Categories
+		private final Map<String, StrAccumulator> categories = new LinkedHashMap<>();
+		private final String[] categoryNames;
+		private final StrAccumulator[] byCategory;
+
+		public Summary() {
+			this(false);
+		}
+
+		public Summary(boolean withSketches) {
+			this(withSketches, new String[0]);
+		}
+
+		/** @param categoryNames имена категорий по их номерам в {@link Categories} */
+		public Summary(boolean withSketches, String[] categoryNames) {
+			this.sketches = withSketches ? new Sketches() : null;
+			this.categoryNames = categoryNames;
+			this.byCategory = new StrAccumulator[categoryNames.length];
+			for (int i = 0; i < categoryNames.length; i++) {
+				byCategory[i] = new StrAccumulator();
+				categories.put(categoryNames[i], byCategory[i]);
+			}
+		}
+
+		/** Пустая статистика с теми же настройками, для частичных результатов. */
+		public Summary empty() {
+			return new Summary(sketches != null, categoryNames);
+		}
+
+		public IntAccumulator ints() {
+			return ints;
+		}
+
+		public DecAccumulator decimals() {
+			return decimals;
+		}
+
+		public StrAccumulator strings() {
+			return strings;
+		}
+
+		public Sketches sketches() {
+			return sketches;
+		}
+
+		/** Статистика длин по категориям, в том числе добавленным из сохранённых файлов. */
+		public Map<String, StrAccumulator> categories() {
+			return categories;
+		}
+
+		public void add(int category, String value) {
+			byCategory[category].add(value);
+		}
+
+		public void add(int category, ByteBuffer buf, int start, int end) {
+			byCategory[category].add(buf, start, end);
+		}
+
+		/** Записи FLOAT без цифр ("-", "e5") пропускаются: их считает чтение как строки с ошибками. */
+		public void add(Kind kind, String value) {
+			if (kind == Kind.FLOAT && !Classifier.hasDigits(value, 0, value.length()))
+				return;
+			switch (kind) {
+				case INTEGER -> ints.add(value);
+				case FLOAT -> decimals.add(value);
+				default -> strings.add(value);
+			}
+			if (sketches != null)
+				sketches.add(kind, value);
+		}
+
+		public void add(Kind kind, ByteBuffer buf, int start, int end) {
+			if (kind == Kind.FLOAT && !Classifier.hasDigits(buf, start, end))
+				return;
+			switch (kind) {
+				case INTEGER -> ints.add(buf, start, end);
+				case FLOAT -> decimals.add(buf, start, end);
+				default -> strings.add(buf, start, end);
+			}
+			if (sketches != null)
+				sketches.add(kind, buf, start, end);
+		}
+
+		public void merge(Summary other) {
+			ints.merge(other.ints);
+			decimals.merge(other.decimals);
+			strings.merge(other.strings);
+			if (sketches != null && other.sketches != null)
+				sketches.merge(other.sketches);
+			for (Map.Entry<String, StrAccumulator> category : other.categories.entrySet())
+				categories.computeIfAbsent(category.getKey(), name -> new StrAccumulator()).merge(category.getValue());
+		}
+
+		public void save(Path file) throws IOException {
+			Properties props = new Properties();
+			ints.save(props, "integers");
+			decimals.save(props, "floats");
+			strings.save(props, "strings");
+			if (sketches != null)
+				sketches.save(props, "sketch");
+			for (Map.Entry<String, StrAccumulator> category : categories.entrySet())
+				category.getValue().save(props, "category." + category.getKey());
+			try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+				props.store(writer, "sorting-util stats");
+			}
+		}
+
+		public static Summary load(Path file) throws IOException {
+			Properties props = new Properties();
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				props.load(reader);
+			}
+			Summary summary = new Summary(Sketches.isSaved(props, "sketch"));
+			try {
+				summary.ints.load(props, "integers");
+				summary.decimals.load(props, "floats");
+				summary.strings.load(props, "strings");
+				if (summary.sketches != null)
+					summary.sketches.load(props, "sketch");
+				for (String key : new TreeSet<>(props.stringPropertyNames())) {
+					if (key.startsWith("category.") && key.endsWith(".count")) {
+						String name = key.substring("category.".length(), key.length() - ".count".length());
+						summary.categories.computeIfAbsent(name, n -> new StrAccumulator()).load(props, "category." + name);
+					}
+				}
+			} catch (RuntimeException e) {
+				throw new IOException("Повреждённый файл статистики " + file, e);
+			}
+			return summary;
+		}
+	}
+
+	public IntResult intStats(Collection<String> strNums) {
+		IntAccumulator acc = new IntAccumulator();
+		for (String strNum : strNums)
+			acc.add(strNum);
+		return acc.result();
 	}
 
 	public DecResult decimalStats(Collection<String> strNums) {
-		BigDecimal max = BigDecimal.valueOf(Long.MIN_VALUE);
-		BigDecimal min = BigDecimal.valueOf(Long.MAX_VALUE);
-		BigDecimal sum = BigDecimal.ZERO;
-		
-		for (String strNum : strNums) {
-			BigDecimal num = new BigDecimal(strNum);
-			if (num.compareTo(min) < 0) min = num;
-			if (num.compareTo(max) > 0) max = num;
-			sum = sum.add(num);
-		}
-		
-		BigDecimal avg = sum.divide(new BigDecimal(strNums.size()), mc);
-		sum = sum.round(mc);
-		
-		return new DecResult(min, max, sum, avg);
+		DecAccumulator acc = new DecAccumulator();
+		for (String strNum : strNums)
+			acc.add(strNum);
+		return acc.result();
 	}
 }
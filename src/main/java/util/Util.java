@@ -1,35 +1,45 @@
 package main.java.util;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import javax.management.JMException;
+
+import main.java.util.Classifier.Kind;
 import main.java.util.Stats.DecResult;
 import main.java.util.Stats.IntResult;
+import main.java.util.Stats.StrResult;
 
 public class Util {
 
-	static final Pattern numEx = Pattern.compile("^(0|-?[1-9][0-9]*)$");
-	static final Pattern decEx = Pattern.compile("^-?([0-9]*(\\.[0-9]+)?|\\.[0-9]+)([eE]-?[0-9]+)?$");
-	static final Charset encoding = Charset.forName("UTF-8");
+	static final Charset encoding = StandardCharsets.UTF_8;
 
 	private static String usage = """
 			Использование: java -jar sorting-data-from-files.jar [ОПЦИИ] <входной_файл1> <входной_файл2> ... <входной_файлN>
 
 						Строки из файлов читаются по очереди в порядке перечисления.
+						Вместо имени файла можно указать - , тогда читается stdin.
 						Разделитель записей во входных файлах - перевод строки.
 						По умолчанию результаты записываются в файлы integers.txt, floats.txt и strings.txt
 
@@ -47,17 +57,124 @@ public class Util {
 						  -f                 Полная статистика:
 						                       * для чисел - min/max/сумма/среднее
 						                       * для строк - минимальная и максимальная длина
-						  """;
 
-	private static boolean isInteger(String line) {
-		line = line.trim();
-		return numEx.matcher(line).matches();
-	}
-
-	private static boolean isFloat(String line) {
-		line = line.replace(",", ".").trim();
-		return decEx.matcher(line).matches();
-	}
+						  -t <N|v>           Читать файлы параллельно в N потоков
+						                     (v - виртуальные потоки). Порядок строк
+						                     в выходных файлах сохраняется.
+
+						  --split <МБ>       В режиме -t делить файлы больше указанного
+						                     размера на куски по границам строк и читать
+						                     их параллельно (по умолчанию 64 МБ).
+
+						  --mmap             Читать файлы через отображение в память,
+						                     перенося строки в выходные файлы без
+						                     декодирования (stdin и сжатые файлы -
+						                     тоже байтами, без декодирования).
+
+						  --buffer <КБ>      Размер буфера записи для каждого выходного
+						                     файла (по умолчанию 1024 КБ).
+
+						  --fsync <режим>    Сброс выходных файлов на диск: none - не
+						                     сбрасывать (по умолчанию), end - при закрытии,
+						                     <МБ> - после каждых МБ записанных данных.
+
+						  --stats-save <файл>   Сохранить полную статистику в файл, чтобы
+						                     позже объединить её с другими запусками.
+
+						  --stats-merge <файл>  Добавить к статистике сохранённую ранее
+						                     (можно указать несколько раз). Без входных
+						                     файлов - только объединить и вывести её.
+
+						  --sketch           Добавить к полной статистике приближённые
+						                     медиану, 95-й и 99-й процентили чисел,
+						                     количество различных значений и
+						                     распределение длин строк.
+
+						  --gzip             Сжимать выходные файлы gzip (.txt.gz) блоками
+						                     параллельно во всех ядрах. Входные файлы
+						                     .gz распознаются и распаковываются сами.
+
+						  --gzip-level <1-9> Уровень сжатия (по умолчанию 9), включает --gzip.
+
+						  --resume           Дописывать в выходные файлы (как -a) только
+						                     новые строки: что уже обработано, хранится
+						                     в manifest.properties рядом с выходными
+						                     файлами; после сбоя запуск продолжается
+						                     с последней отметки.
+
+						  --watch            Не завершаться, а дописывать новые строки из
+						                     файлов по мере их появления (включает --resume).
+						                     Вместо файла можно указать каталог: читаются
+						                     все файлы в нём, в том числе новые. Остановка -
+						                     Ctrl+C или SIGTERM, после неё выводится итог.
+
+						  --report <сек>     Как часто выводить статистику и обновлять
+						                     --metrics в режиме --watch (по умолчанию 60 с).
+
+						  --checkpoint <МБ>  Как часто сохранять отметки в режиме
+						                     --resume (по умолчанию каждые 1024 МБ).
+
+						  --category <имена> Отдельные файлы <имя>.txt для записей, которые
+						                     не числа: date (ISO 8601), uuid, ipv4, hex (0x...)
+						                     и категории из jar на classpath. Имена через
+						                     запятую в порядке приоритета: запись попадает
+						                     в первую подошедшую категорию, иначе в строки.
+
+						  --metrics <файл|-> Записать показатели запуска (объём, строки в
+						                     секунду, время по этапам и по файлам, сборка
+						                     мусора) в файл или, если указан -, в stdout.
+
+						  --metrics-format <json|prometheus>
+						                     Формат показателей (по умолчанию json, для
+						                     файлов .prom - prometheus).
+
+						  --jmx              Показывать те же показатели во время работы
+						                     через JMX (main.java.util:type=Metrics).
+
+						  --stdout <кат>     Писать в stdout вместо файла записи одной
+						                     категории: integers, floats, strings или имя из
+						                     --category; all - все записи, каждая с меткой
+						                     <категория><TAB>. Сообщения утилиты в этом
+						                     режиме выводятся в stderr. Входной файл - это
+						                     stdin, так утилиту можно ставить в конвейер.
+
+						  --dedup            Не записывать повторы: запись, которая уже была
+						                     в своей категории, пропускается. Число
+						                     пропущенных выводится вместе со статистикой.
+
+						  --dedup-memory <МБ> Сколько памяти вне кучи занимать под поиск
+						                     повторов, дальше - временный файл в каталоге
+						                     выходных файлов (по умолчанию 256 МБ),
+						                     включает --dedup.
+
+						  --binary           Писать целые и дробные не текстом, а в двоичные
+						                     integers.bin и floats.bin: блоки long и double
+						                     little-endian с min/max/количеством в заголовке
+						                     каждого блока (формат - в классе Columnar).
+
+						  --reject           Строки с ошибками (некорректный UTF-8, числа без
+						                     цифр вроде "-", нечитаемые участки файлов) не
+						                     записывать в выходные файлы, а откладывать в
+						                     rejected.txt: входной файл, смещение в байтах,
+						                     причина и сама строка через табуляцию.
+						                     Включает --mmap. Без этой опции такие строки
+						                     записываются с заменой некорректных символов.
+
+						  --workers <N|хосты> Разделить файлы (большие - кусками по --split)
+						                     между N процессами утилиты на этой машине или
+						                     между хостами через ssh (через запятую, local -
+						                     эта машина). Результаты дописываются в выходные
+						                     файлы по порядку, статистика объединяется.
+						                     Хостам входные файлы и каталог -o нужны по тем же
+						                     путям, а java - в PATH.
+
+						  --sort             Отсортировать выходные файлы: числа по значению,
+						                     строки лексикографически.
+
+						  --sort-memory <МБ> Сколько памяти занимать при сортировке, больше
+						                     данные сливаются через временные файлы
+						                     (по умолчанию 64 МБ).
+						  """;
 
 	public static Path resolveFilepath(String dirPath) {
 		try {
@@ -83,6 +200,18 @@ public class Util {
 		}
 	}
 
+	private static boolean isPositiveNumber(String value) {
+		try {
+			return Integer.parseInt(value) > 0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static boolean isValidThreads(String value) {
+		return value.equals("v") || isPositiveNumber(value);
+	}
+
 	private static boolean isValidFilename(String name) {
 		String upper = name.toUpperCase();
 		List<String> reserved = List.of("CON", "PRN", "AUX", "NUL", "COM1", "COM2", "COM3", "COM4", "COM5", "COM6",
@@ -94,34 +223,40 @@ public class Util {
 		return true;
 	}
 
-	private static void writeToTheFile(Path dir, String filename, ArrayList<?> data, boolean append) {
-		Path filepath = dir.resolve(filename);
-
-		try (BufferedWriter writer = Files.newBufferedWriter(filepath, encoding, StandardOpenOption.CREATE,
-				append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING))
-
-		{
-			for (Object elem : data) {
-				writer.write(elem.toString());
-				writer.newLine();
-			}
-		} catch (IOException e) {
-			System.err.println("Ошибка при записи в файл " + filename);
-		}
-	}
-
 	public static void main(String[] args) {
 
 		String path = ".";
 		String prefix = "";
 		String stat = "";
+		String threads = "";
+		long splitMb = 64;
+		boolean mapped = false;
+		int bufferKb = Output.Options.DEFAULT.bufferSize() / 1024;
+		String fsync = "none";
+		String statsSave = null;
+		boolean sketch = false;
+		boolean sort = false;
+		int gzipLevel = 0;
+		boolean resume = false;
+		long checkpointMb = 1024;
+		long sortMemoryMb = 64;
+		ArrayList<String> categoryNames = new ArrayList<String>();
+		String metricsTarget = null;
+		String metricsFormat = null;
+		boolean jmx = false;
+		boolean watch = false;
+		long reportSeconds = 60;
+		String toStdout = null;
+		long dedupMb = 0;
+		boolean binary = false;
+		boolean reject = false;
+		List<String> workers = null;
+		// каталог обработчика --workers, с которым запустил координатор
+		String shard = null;
+		ArrayList<String> statsMerge = new ArrayList<String>();
 		boolean addToExisting = false;
 		ArrayList<String> files = new ArrayList<String>();
 
-		ArrayList<String> strings = new ArrayList<String>();
-		ArrayList<String> integers = new ArrayList<String>();
-		ArrayList<String> floats = new ArrayList<String>();
-
 		int argsSize = args.length;
 
 		System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.out), true, StandardCharsets.UTF_8));
@@ -152,6 +287,149 @@ public class Util {
 				case ("-a"):
 					addToExisting = true;
 					continue;
+				case ("-t"):
+					if (i + 1 < argsSize && isValidThreads(args[i + 1]))
+						threads = args[i + 1];
+					else
+						System.out.println("Недопустимое количество потоков, файлы будут прочитаны последовательно.");
+					i++;
+					continue;
+				case ("--mmap"):
+					mapped = true;
+					continue;
+				case ("--buffer"):
+					if (i + 1 < argsSize && isPositiveNumber(args[i + 1]))
+						bufferKb = Integer.parseInt(args[i + 1]);
+					else
+						System.out.println("Недопустимый размер буфера, используется " + bufferKb + " КБ.");
+					i++;
+					continue;
+				case ("--fsync"):
+					if (i + 1 < argsSize && (args[i + 1].equals("none") || args[i + 1].equals("end")
+							|| isPositiveNumber(args[i + 1])))
+						fsync = args[i + 1];
+					else
+						System.out.println("Недопустимый режим --fsync, данные не будут принудительно сбрасываться на диск.");
+					i++;
+					continue;
+				case ("--stats-save"):
+					if (i + 1 < argsSize)
+						statsSave = args[i + 1];
+					i++;
+					continue;
+				case ("--stats-merge"):
+					if (i + 1 < argsSize)
+						statsMerge.add(args[i + 1]);
+					i++;
+					continue;
+				case ("--sketch"):
+					sketch = true;
+					continue;
+				case ("--gzip"):
+					if (gzipLevel == 0)
+						gzipLevel = Compression.DEFAULT_LEVEL;
+					continue;
+				case ("--gzip-level"):
+					if (i + 1 < argsSize && args[i + 1].matches("[1-9]"))
+						gzipLevel = Integer.parseInt(args[i + 1]);
+					else
+						System.out.println("Недопустимый уровень сжатия, должен быть от 1 до 9.");
+					i++;
+					continue;
+				case ("--resume"):
+					resume = true;
+					continue;
+				case ("--watch"):
+					watch = true;
+					continue;
+				case ("--report"):
+					if (i + 1 < argsSize && isPositiveNumber(args[i + 1]))
+						reportSeconds = Long.parseLong(args[i + 1]);
+					else
+						System.out.println("Недопустимый интервал статистики, используется " + reportSeconds + " с.");
+					i++;
+					continue;
+				case ("--checkpoint"):
+					if (i + 1 < argsSize && isPositiveNumber(args[i + 1]))
+						checkpointMb = Long.parseLong(args[i + 1]);
+					else
+						System.out.println("Недопустимый интервал отметок, используется " + checkpointMb + " МБ.");
+					i++;
+					continue;
+				case ("--category"):
+					if (i + 1 < argsSize)
+						categoryNames.addAll(List.of(args[i + 1].split(",")));
+					i++;
+					continue;
+				case ("--metrics"):
+					if (i + 1 < argsSize)
+						metricsTarget = args[i + 1];
+					i++;
+					continue;
+				case ("--metrics-format"):
+					if (i + 1 < argsSize && (args[i + 1].equals("json") || args[i + 1].equals("prometheus")))
+						metricsFormat = args[i + 1];
+					else
+						System.out.println("Недопустимый формат показателей, должен быть json или prometheus.");
+					i++;
+					continue;
+				case ("--jmx"):
+					jmx = true;
+					continue;
+				case ("--stdout"):
+					if (i + 1 < argsSize)
+						toStdout = args[i + 1];
+					i++;
+					continue;
+				case ("--dedup"):
+					if (dedupMb == 0)
+						dedupMb = 256;
+					continue;
+				case ("--dedup-memory"):
+					if (i + 1 < argsSize && isPositiveNumber(args[i + 1]))
+						dedupMb = Long.parseLong(args[i + 1]);
+					else
+						System.out.println("Недопустимый объём памяти для поиска повторов, должен быть больше 0 МБ.");
+					i++;
+					continue;
+				case ("--binary"):
+					binary = true;
+					continue;
+				case ("--reject"):
+					reject = true;
+					mapped = true;
+					continue;
+				case ("--workers"):
+					if (i + 1 < argsSize && isPositiveNumber(args[i + 1]))
+						workers = Collections.nCopies(Integer.parseInt(args[i + 1]), Shards.LOCAL);
+					else if (i + 1 < argsSize && !args[i + 1].isBlank() && !args[i + 1].matches("-.*|\\d+"))
+						workers = List.of(args[i + 1].split(","));
+					else
+						System.out.println("Недопустимые обработчики --workers, файлы будут обработаны в этом процессе.");
+					i++;
+					continue;
+				case ("--shard"):
+					if (i + 1 < argsSize)
+						shard = args[i + 1];
+					i++;
+					continue;
+				case ("--sort"):
+					sort = true;
+					continue;
+				case ("--sort-memory"):
+					if (i + 1 < argsSize && isPositiveNumber(args[i + 1]))
+						sortMemoryMb = Long.parseLong(args[i + 1]);
+					else
+						System.out.println("Недопустимый объём памяти для сортировки, используется " + sortMemoryMb + " МБ.");
+					i++;
+					continue;
+				case ("--split"):
+					if (i + 1 < argsSize && isPositiveNumber(args[i + 1]))
+						splitMb = Long.parseLong(args[i + 1]);
+					else
+						System.out.println("Недопустимый размер куска файла, используется " + splitMb + " МБ.");
+					i++;
+					continue;
 			}
 
 			if (isValidFilename(arg))
@@ -160,101 +438,410 @@ public class Util {
 				System.out.println("Недопустимое имя файла " + arg);
 		}
 
-		if (argsSize == 0 || files.size() == 0) {
+		// stdout занят записями, сообщения туда писать нельзя
+		if (toStdout != null)
+			System.setOut(System.err);
+
+		List<Ingest.Range> shardRanges = null;
+		if (shard != null) {
+			try {
+				shardRanges = Shards.ranges(Path.of(shard));
+			} catch (IOException | InvalidPathException e) {
+				System.err.println("Не удалось прочитать куски файлов обработчика из " + shard);
+				return;
+			}
+			path = shard;
+			for (Ingest.Range range : shardRanges)
+				files.add(range.filename());
+		}
+
+		if (argsSize == 0 || (files.size() == 0 && statsMerge.size() == 0)) {
 			System.out.println("Команда введена неверно.");
 			System.out.println(usage);
 			return;
 		}
 
-		Path dir = resolveFilepath(path);
+		if (binary && sort)
+			System.out.println("Двоичные integers.bin и floats.bin не сортируются.");
 
-		for (String filename : files) {
-			try (BufferedReader reader = new BufferedReader(new FileReader(filename, encoding))) {
-				String line;
-				while ((line = reader.readLine()) != null) {
-					if (line.isBlank())
-						continue;
-					if (isInteger(line))
-						integers.add(line.trim());
-					else if (isFloat(line))
-						floats.add(line.replace(",", ".").trim());
-					else
-						strings.add(line);
-				}
-						} catch (IOException e) {
-				System.err.println("Ошибка при прочтении файла " + filename);
+		if (watch) {
+			resume = true;
+			if (sort) {
+				System.out.println("В режиме --watch выходные файлы не сортируются.");
+				sort = false;
 			}
+			if (files.remove(Ingest.STDIN))
+				System.out.println("В режиме --watch stdin не читается.");
 		}
 
-		if (integers.isEmpty() && floats.isEmpty() && strings.isEmpty()) {
-			System.out.println("Сортировка не была выполнена, проверьте содержимое исходных файлов.");
-			return;
+		if (dedupMb > 0) {
+			long maxMb = Math.max(1, Dedup.maxLimit() / (1024 * 1024));
+			if (dedupMb > maxMb) {
+				System.out.println("Для поиска повторов доступно не больше " + maxMb
+						+ " МБ памяти вне кучи (-XX:MaxDirectMemorySize), используется столько.");
+				dedupMb = maxMb;
+			}
+		}
+		if (workers != null && (watch || resume || toStdout != null || dedupMb > 0 || files.contains(Ingest.STDIN))) {
+			System.out.println("Режим --workers не сочетается с --watch, --resume, --stdout, --dedup и stdin,"
+					+ " файлы будут обработаны в этом процессе.");
+			workers = null;
+		}
+		// параллельность задаёт число обработчиков
+		if (workers != null)
+			threads = "";
+
+		Categories categories = null;
+		if (!categoryNames.isEmpty()) {
+			try {
+				categories = Categories.of(categoryNames);
+			} catch (IllegalArgumentException | ServiceConfigurationError e) {
+				System.out.println(e.getMessage() + ". Категории не будут выделены.");
+			}
 		}
 
-		if (!integers.isEmpty()) {
-			writeToTheFile(dir, prefix + "integers.txt", integers, addToExisting);
+		if (toStdout != null) {
+			List<String> kinds = new ArrayList<>(List.of("integers", "floats", "strings", Outputs.ALL));
+			if (categories != null)
+				kinds.addAll(List.of(categories.names()));
+			if (!kinds.contains(toStdout)) {
+				System.out.println("Недопустимая категория для --stdout, должна быть одной из: "
+						+ String.join(", ", kinds) + ". Записи будут сохранены в файлы.");
+				toStdout = null;
+			} else if (sort) {
+				System.out.println("Записи в stdout не сортируются.");
+			}
 		}
 
-		if (!floats.isEmpty()) {
-			writeToTheFile(dir, prefix + "floats.txt", floats, addToExisting);
+		boolean full = stat.equals("full") || files.isEmpty() || sketch;
+		Stats.Summary summary = new Stats.Summary(sketch, categories == null ? new String[0] : categories.names());
+		for (String statsFile : statsMerge) {
+			try {
+				summary.merge(Stats.Summary.load(Path.of(statsFile)));
+			} catch (IOException | InvalidPathException e) {
+				System.err.println("Не удалось прочитать статистику из файла " + statsFile);
+			}
 		}
 
-		if (!strings.isEmpty()) {
-			writeToTheFile(dir, prefix + "strings.txt", strings, addToExisting);
+		if (!files.isEmpty()) {
+			Path dir = resolveFilepath(path);
+			Metrics metrics = metricsTarget == null && !jmx ? null : new Metrics(files);
+			if (jmx) {
+				try {
+					metrics.register();
+				} catch (JMException e) {
+					System.err.println("Не удалось зарегистрировать показатели в JMX");
+				}
+			}
+			Compression gzip = gzipLevel == 0 ? null
+					: new Compression(gzipLevel, Runtime.getRuntime().availableProcessors(), metrics);
+			Output.Options writeOptions = new Output.Options(Math.min(bufferKb, 1024 * 1024) * 1024,
+					fsync.equals("end"), isPositiveNumber(fsync) ? Long.parseLong(fsync) * 1024 * 1024 : 0, gzip,
+					metrics, binary);
+			Manifest manifest = null;
+			Path manifestFile = dir.resolve(prefix + "manifest.properties");
+			if (resume) {
+				try {
+					manifest = Manifest.load(manifestFile);
+				} catch (IOException e) {
+					System.err.println("Не удалось прочитать файл отметок " + manifestFile
+							+ ", удалите его, чтобы обработать файлы заново.");
+					return;
+				}
+			}
+			Outputs outputs = new Outputs(dir, prefix, addToExisting || resume, writeOptions, categories, toStdout,
+					reject);
+			if (manifest != null) {
+				try {
+					manifest.start(dir, outputs);
+				} catch (IOException e) {
+					System.err.println("Не удалось сохранить файл отметок " + manifestFile + ": " + e.getMessage());
+					return;
+				}
+			}
+			long checkpointBytes = checkpointMb * 1024 * 1024;
+			Ingest ingest = new Ingest(mapped, full || statsSave != null ? summary : null,
+					manifest == null ? null
+							: new Ingest.Resume(manifest, checkpointBytes, manifest.checkpoints(outputs, checkpointBytes)),
+					categories, metrics, reject);
+
+			boolean virtual = threads.equals("v");
+			int poolSize = virtual ? Runtime.getRuntime().availableProcessors()
+					: threads.isEmpty() ? 1 : Integer.parseInt(threads);
+			ExecutorService pool = poolSize == 1 && !virtual ? null
+					: virtual ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(poolSize);
+			long rangeSize = splitMb * 1024 * 1024;
+			Dedup dedup = dedupMb == 0 ? null
+					: new Dedup(outputs, categories == null ? 0 : categories.size(), dedupMb * 1024 * 1024, dir,
+							"." + prefix + "dedup.");
+			Ingest.Handler handler = dedup == null ? outputs : dedup;
+			Shards shards = workers == null ? null
+					: new Shards(workers, workerOptions(prefix, mapped, reject, categoryNames, gzipLevel, binary,
+							bufferKb, sketch), dir.resolve("." + prefix + "shards"), rangeSize);
+			List<Ingest.Range> ranges = shardRanges;
+			Stats.Summary partial = full || statsSave != null ? summary : null;
+			Watch.Pass pass = inputs -> {
+				if (shards != null)
+					shards.run(inputs, outputs, partial);
+				else if (ranges != null)
+					ingest.ranges(ranges, handler);
+				else if (pool == null)
+					ingest.sequential(inputs, handler);
+				else
+					ingest.parallel(inputs, pool, 2 * poolSize, rangeSize, handler);
+			};
+			String metricsFile = metricsTarget;
+			String metricsType = metricsFormat;
+			try {
+				if (watch)
+					watch(files, outputs, manifest, manifestFile, reportSeconds, pass, () -> {
+						System.out.println();
+						System.out.println("Итоги на " + LocalTime.now().withNano(0) + ":");
+						printCounts(outputs, dedup);
+						if (full)
+							printFullStats(summary);
+						writeMetrics(metrics, metricsFile, metricsType);
+					});
+				else
+					pass.read(files);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				System.err.println("Чтение файлов было прервано");
+			} finally {
+				if (pool != null)
+					pool.close();
+				if (dedup != null)
+					dedup.close();
+			}
+
+			outputs.close();
+			if (shard != null && !outputs.failed()) {
+				try {
+					Shards.saveCounts(outputs, dir);
+				} catch (IOException e) {
+					System.err.println("Не удалось записать итоги обработчика в " + dir);
+				}
+			}
+			// до сортировки: после неё размеры те же, а отрезать строки от упавшего
+			// запуска можно только у несортированного файла
+			if (manifest != null)
+				manifest.checkpoint(outputs);
+			Output integers = outputs.integers;
+			Output floats = outputs.floats;
+			Output strings = outputs.strings;
+
+			if (sort) {
+				long since = System.nanoTime();
+				sortOutput(integers, Kind.INTEGER, sortMemoryMb, gzip);
+				sortOutput(floats, Kind.FLOAT, sortMemoryMb, gzip);
+				sortOutput(strings, Kind.STRING, sortMemoryMb, gzip);
+				for (Output category : outputs.categories)
+					sortOutput(category, Kind.STRING, sortMemoryMb, gzip);
+				if (metrics != null)
+					metrics.time(Metrics.Stage.SORT, System.nanoTime() - since);
+			}
+			if (gzip != null)
+				gzip.close();
+			if (metrics != null) {
+				metrics.finish();
+				writeMetrics(metrics, metricsTarget, metricsFormat);
+			}
+
+			if (outputs.isEmpty() && resume) {
+				System.out.println("Новых строк во входных файлах нет.");
+				if (statsMerge.isEmpty())
+					return;
+			} else if (outputs.isEmpty()) {
+				System.out.println("Сортировка не была выполнена, проверьте содержимое исходных файлов.");
+				if (statsMerge.isEmpty())
+					return;
+			} else if (stat.equals("full") || stat.equals("short")) {
+				printCounts(outputs, dedup);
+			} else {
+				System.out.printf("Сортировка была произведена, результаты можете проверить в %s.\n",
+						(path == "." ? "текущей папке" : dir.toString()));
+			}
 		}
 
-		if (stat.equals("full") || stat.equals("short")) {
-			if (!integers.isEmpty())
-				System.out.printf("В файл %sintegers.txt записано чисел: %d\n", prefix, integers.size());
-			if (!floats.isEmpty())
-				System.out.printf("В файл %sfloats.txt записано чисел: %d\n", prefix, floats.size());
-			if (!strings.isEmpty())
-				System.out.printf("В файл %sstrings.txt записано строк: %d \n", prefix, strings.size());
-		} else {
-			System.out.printf("Сортировка была произведена, результаты можете проверить в %s.\n",
-					(path == "." ? "текущей папке" : dir.toString()));
+		if (statsSave != null) {
+			try {
+				summary.save(Path.of(statsSave));
+			} catch (IOException | InvalidPathException e) {
+				System.err.println("Не удалось сохранить статистику в файл " + statsSave);
+			}
 		}
 
-		if (stat.equals("full")) {
-
-			if (!strings.isEmpty()) {
-				int maxLen = 0;
-				int minLen = Integer.MAX_VALUE;
-				for (String string : strings) {
-					int l = string.length();
-					if (l > maxLen)
-						maxLen = l;
-					if (l < minLen)
-						minLen = l;
-				}
+		if (full)
+			printFullStats(summary);
+	}
 
-				System.out.println();
+	/** Опции, с которыми обработчики --workers читают и пишут так же, как этот процесс. */
+	private static List<String> workerOptions(String prefix, boolean mapped, boolean reject, List<String> categories,
+			int gzipLevel, boolean binary, int bufferKb, boolean sketch) {
+		List<String> options = new ArrayList<>(List.of("-p", prefix, "--buffer", String.valueOf(bufferKb)));
+		if (mapped)
+			options.add("--mmap");
+		if (reject)
+			options.add("--reject");
+		if (!categories.isEmpty())
+			options.addAll(List.of("--category", String.join(",", categories)));
+		if (gzipLevel > 0)
+			options.addAll(List.of("--gzip-level", String.valueOf(gzipLevel)));
+		if (binary)
+			options.add("--binary");
+		if (sketch)
+			options.add("--sketch");
+		return options;
+	}
 
-				System.out.println("Максимальная длина строки: " + maxLen);
-				System.out.println("Минимальная длина строки: " + minLen);
+	/** Читает файлы в режиме --watch, пока процесс не остановят. */
+	private static void watch(List<String> files, Outputs outputs, Manifest manifest, Path manifestFile,
+			long reportSeconds, Watch.Pass pass, Runnable report) throws InterruptedException {
+		Set<Path> excluded = new HashSet<>();
+		for (Output output : outputs.files())
+			excluded.add(output.path().toAbsolutePath().normalize());
+		excluded.add(manifestFile.toAbsolutePath().normalize());
+		excluded.add(manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp").toAbsolutePath().normalize());
+		Watch watcher = new Watch(files, excluded, reportSeconds * 1000, pass, () -> manifest.checkpoint(outputs),
+				report);
+		// по SIGTERM и Ctrl+C дожидаемся конца прохода, закрытия файлов и итогов
+		Thread main = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			watcher.stop();
+			try {
+				main.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
+		}));
+		System.out.println("Новые строки дописываются по мере появления, для остановки нажмите Ctrl+C.");
+		try {
+			watcher.run();
+		} catch (IOException e) {
+			System.err.println("Не удалось запустить слежение за файлами");
+		}
+	}
 
-			if (!floats.isEmpty() || !integers.isEmpty()) {
-				Stats stats = new Stats();
+	private static void printCounts(Outputs outputs, Dedup dedup) {
+		Output integers = outputs.integers;
+		Output floats = outputs.floats;
+		Output strings = outputs.strings;
+		if (integers.count() > 0)
+			System.out.printf("В файл %s записано чисел: %d\n", integers.filename(), integers.count());
+		printDuplicates(dedup, Engine.INTEGERS);
+		if (floats.count() > 0)
+			System.out.printf("В файл %s записано чисел: %d\n", floats.filename(), floats.count());
+		printDuplicates(dedup, Engine.FLOATS);
+		if (strings.count() > 0)
+			System.out.printf("В файл %s записано строк: %d \n", strings.filename(), strings.count());
+		printDuplicates(dedup, Engine.STRINGS);
+		for (int i = 0; i < outputs.categories.length; i++) {
+			Output category = outputs.categories[i];
+			if (category.count() > 0)
+				System.out.printf("В файл %s записано записей: %d\n", category.filename(), category.count());
+			printDuplicates(dedup, Engine.CUSTOM + i);
+		}
+		if (outputs.rejected != null && outputs.rejected.count() > 0)
+			System.out.printf("В файл %s записано строк с ошибками: %d\n", outputs.rejected.filename(),
+					outputs.rejected.count());
+		else if (outputs.malformed() > 0)
+			System.out.printf("Строк с ошибками: %d, они записаны с заменой (отложить их - опция --reject)\n",
+					outputs.malformed());
+	}
 
-				if (!floats.isEmpty()) {
-					System.out.println();
-					DecResult res = stats.decimalStats(floats);
-					System.out.println("Минимальное число с плавающей запятой: " + res.min());
-					System.out.println("Максимальное число с плавающей запятой: " + res.max());
-					System.out.println("Сумма (точность до 10 значащих цифр): " + res.sum());
-					System.out.println("Среднее (точность до 10 значащих цифр): " + res.avg());
-				}
-				if (!integers.isEmpty()) {
-					System.out.println();
-					IntResult res = stats.intStats(integers);
-					System.out.println("Минимальное целое число: " + res.min());
-					System.out.println("Максимальное целое число: " + res.max());
-					System.out.println("Сумма: " + res.sum());
-					System.out.println("Среднее: " + res.avg());
+	private static void printDuplicates(Dedup dedup, int category) {
+		if (dedup != null && dedup.duplicates(category) > 0)
+			System.out.printf("  пропущено повторов: %d\n", dedup.duplicates(category));
+	}
+
+	private static void writeMetrics(Metrics metrics, String target, String format) {
+		if (metrics == null || target == null)
+			return;
+		boolean prometheus = format == null ? target.endsWith(".prom") : format.equals("prometheus");
+		try {
+			metrics.report(target, prometheus);
+		} catch (IOException | InvalidPathException e) {
+			System.err.println("Не удалось записать показатели в файл " + target);
+		}
+	}
+
+	private static void sortOutput(Output output, Kind kind, long memoryMb, Compression gzip) {
+		if (output.count() == 0 || output.path() == null || output.isBinary())
+			return;
+		try {
+			ExternalSort.sort(output.path(), kind, memoryMb * 1024 * 1024, gzip);
+		} catch (IOException e) {
+			System.err.println("Не удалось отсортировать файл " + output.filename());
+		}
+	}
+
+	private static void printFullStats(Stats.Summary summary) {
+		if (summary.strings().count() > 0) {
+			StrResult res = summary.strings().result();
+
+			System.out.println();
+
+			System.out.println("Максимальная длина строки: " + res.maxLen());
+			System.out.println("Минимальная длина строки: " + res.minLen());
+			Sketches sketches = summary.sketches();
+			if (sketches != null) {
+				System.out.println("Различных строк (примерно): " + sketches.strDistinct().estimate());
+				System.out.println("Распределение длин строк:");
+				long[] lengths = sketches.lengths();
+				for (int i = 0; i < lengths.length; i++) {
+					if (lengths[i] == 0)
+						continue;
+					int from = Sketches.lengthFrom(i);
+					int to = i == 0 ? 0 : Sketches.lengthFrom(i + 1) - 1;
+					System.out.printf("  %s: %d\n", from == to ? String.valueOf(from) : from + "-" + to, lengths[i]);
 				}
 			}
+		}
+
+		for (Map.Entry<String, Stats.StrAccumulator> category : summary.categories().entrySet()) {
+			if (category.getValue().count() == 0)
+				continue;
+			StrResult res = category.getValue().result();
+			System.out.println();
+			System.out.println("Категория " + category.getKey() + ", записей: " + category.getValue().count());
+			System.out.println("Максимальная длина записи: " + res.maxLen());
+			System.out.println("Минимальная длина записи: " + res.minLen());
+		}
 
+		if (summary.decimals().count() > 0) {
+			System.out.println();
+			DecResult res = summary.decimals().result();
+			System.out.println("Минимальное число с плавающей запятой: " + res.min());
+			System.out.println("Максимальное число с плавающей запятой: " + res.max());
+			System.out.println("Сумма (точность до 10 значащих цифр): " + res.sum());
+			System.out.println("Среднее (точность до 10 значащих цифр): " + res.avg());
+			if (summary.sketches() != null)
+				printSketch(summary.sketches().decQuantiles(), summary.sketches().decDistinct(), false);
 		}
+		if (summary.ints().count() > 0) {
+			System.out.println();
+			IntResult res = summary.ints().result();
+			System.out.println("Минимальное целое число: " + res.min());
+			System.out.println("Максимальное целое число: " + res.max());
+			System.out.println("Сумма: " + res.sum());
+			System.out.println("Среднее: " + res.avg());
+			if (summary.sketches() != null)
+				printSketch(summary.sketches().intQuantiles(), summary.sketches().intDistinct(), true);
+		}
+	}
+
+	private static void printSketch(Sketches.Quantiles quantiles, Sketches.Distinct distinct, boolean integer) {
+		if (quantiles.count() > 0) {
+			System.out.println("Медиана (примерно): " + approx(quantiles.quantile(0.5), integer));
+			System.out.println("95-й процентиль (примерно): " + approx(quantiles.quantile(0.95), integer));
+			System.out.println("99-й процентиль (примерно): " + approx(quantiles.quantile(0.99), integer));
+		}
+		System.out.println("Различных чисел (примерно): " + distinct.estimate());
+	}
+
+	private static String approx(double value, boolean integer) {
+		BigDecimal num = BigDecimal.valueOf(value);
+		return integer ? num.setScale(0, RoundingMode.HALF_UP).toPlainString()
+				: num.round(new MathContext(10, RoundingMode.HALF_UP)).toString();
 	}
 }
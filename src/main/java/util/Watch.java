@@ -0,0 +1,151 @@
+package main.java.util;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+ * Режим --watch: JVM не завершается, а дочитывает входные файлы по мере того,
+ * как в них появляются новые строки. Каждый проход - обычное чтение в режиме
+ * --resume, то есть только с последних отметок и только целые строки, после
+ * прохода выходные файлы сбрасываются на диск и отметки сохраняются. Проход
+ * начинается по событию WatchService в каталоге файла, а если событий нет
+ * (сетевые файловые системы их не присылают) - раз в RESCAN_MILLIS. Каталог
+ * во входных файлах означает все файлы в нём, в том числе новые
+ */
+final class Watch {
+
+	/** Один проход по файлам; выходные файлы остаются открытыми. */
+	interface Pass {
+		void read(List<String> files) throws InterruptedException;
+	}
+
+	static final long RESCAN_MILLIS = 5000;
+	// события приходят на каждую запись в файл, их копим, чтобы не делать проход на каждое
+	static final long SETTLE_MILLIS = 200;
+
+	private final List<String> inputs;
+	private final Set<Path> excluded;
+	private final long reportMillis;
+	private final Pass pass;
+	private final Runnable checkpoint;
+	private final Runnable report;
+	private volatile boolean stopped = false;
+	private volatile WatchService watcher;
+
+	/**
+	 * @param inputs       файлы и каталоги
+	 * @param excluded     файлы, которые не читать, даже если они в каталоге
+	 *                     из inputs (выходные файлы и отметки)
+	 * @param reportMillis как часто вызывать report
+	 * @param checkpoint   вызывается после каждого прохода
+	 */
+	Watch(List<String> inputs, Set<Path> excluded, long reportMillis, Pass pass, Runnable checkpoint,
+			Runnable report) {
+		this.inputs = inputs;
+		this.excluded = excluded;
+		this.reportMillis = reportMillis;
+		this.pass = pass;
+		this.checkpoint = checkpoint;
+		this.report = report;
+	}
+
+	/** Читает файлы, пока не будет вызван {@link #stop()}. */
+	void run() throws IOException, InterruptedException {
+		try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			this.watcher = watcher;
+			Set<Path> registered = new HashSet<>();
+			long nextReport = System.currentTimeMillis() + reportMillis;
+			while (!stopped) {
+				register(watcher, registered);
+				pass.read(files());
+				checkpoint.run();
+				if (System.currentTimeMillis() >= nextReport) {
+					report.run();
+					nextReport = System.currentTimeMillis() + reportMillis;
+				}
+				awaitChanges(watcher, nextReport);
+			}
+		} catch (ClosedWatchServiceException e) {
+			// остановлен из stop()
+		}
+	}
+
+	/** Завершает run() после текущего прохода; можно вызывать из другого потока. */
+	void stop() {
+		stopped = true;
+		WatchService current = watcher;
+		if (current == null)
+			return;
+		try {
+			current.close();
+		} catch (IOException e) {
+			// run() всё равно увидит stopped после ожидания
+		}
+	}
+
+	private void awaitChanges(WatchService watcher, long nextReport) throws InterruptedException {
+		long timeout = Math.min(RESCAN_MILLIS, nextReport - System.currentTimeMillis());
+		WatchKey key = watcher.poll(Math.max(0, timeout), TimeUnit.MILLISECONDS);
+		if (key == null)
+			return;
+		Thread.sleep(SETTLE_MILLIS);
+		do {
+			key.pollEvents();
+			key.reset();
+		} while ((key = watcher.poll()) != null);
+	}
+
+	// каталоги файлов и сами каталоги из inputs, в том числе появившиеся позже
+	private void register(WatchService watcher, Set<Path> registered) {
+		for (String input : inputs) {
+			Path path = Path.of(input).toAbsolutePath().normalize();
+			Path dir = Files.isDirectory(path) ? path : path.getParent();
+			if (dir == null || registered.contains(dir) || !Files.isDirectory(dir))
+				continue;
+			try {
+				dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+				registered.add(dir);
+			} catch (IOException e) {
+				System.err.println("Не удалось следить за каталогом " + dir + ", он будет проверяться раз в "
+						+ RESCAN_MILLIS / 1000 + " с");
+				registered.add(dir);
+			}
+		}
+	}
+
+	/** Существующие файлы из inputs; файлы каталогов - по имени, кроме скрытых. */
+	List<String> files() {
+		List<String> files = new ArrayList<>();
+		for (String input : inputs) {
+			Path path = Path.of(input);
+			if (!Files.isDirectory(path)) {
+				if (Files.isRegularFile(path) && !isExcluded(path))
+					files.add(input);
+				continue;
+			}
+			try (Stream<Path> list = Files.list(path)) {
+				list.filter(file -> Files.isRegularFile(file) && !file.getFileName().toString().startsWith(".")
+						&& !isExcluded(file)).map(Path::toString).sorted().forEach(files::add);
+			} catch (IOException e) {
+				System.err.println("Не удалось прочитать каталог " + input);
+			}
+		}
+		return files;
+	}
+
+	private boolean isExcluded(Path file) {
+		return excluded.contains(file.toAbsolutePath().normalize());
+	}
+}
@@ -0,0 +1,144 @@
+package test.java.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import main.java.util.Categories;
+import main.java.util.Category;
+
+public class CategoriesTest {
+
+	public static final class Email implements Category {
+		@Override
+		public String name() {
+			return "email";
+		}
+
+		@Override
+		public boolean matches(CharSequence value) {
+			String s = value.toString();
+			int at = s.indexOf('@');
+			return at > 0 && s.indexOf('.', at) > at + 1 && s.indexOf(' ') < 0;
+		}
+	}
+
+	private static int matchBytes(Categories categories, String value) {
+		ByteBuffer buf = ByteBuffer.wrap(value.trim().getBytes(StandardCharsets.UTF_8));
+		return categories.match(buf, 0, buf.limit());
+	}
+
+	@DisplayName("Встроенные категории узнают свои записи, из String и из байтов одинаково")
+	@ParameterizedTest(name = "\"{0}\" -> {1}")
+	@CsvSource(delimiter = '|', value = { "2024-02-29|date", "2023-02-29|", "2024-13-01|",
+			"2024-01-31T23:59:60.123456789Z|date", "  2024-01-31 08:00+03:00 |date", "2024-01-31T8:00|",
+			"550e8400-e29b-41d4-a716-446655440000|uuid", "550e8400-e29b-41d4-a716-44665544000g|",
+			"192.168.0.1|ipv4", "255.255.255.255|ipv4", "256.1.1.1|", "01.2.3.4|", "1.2.3|", "1.2.3.4.5|",
+			"0x1F|hex", "0XdeadBEEF|hex", "0x|", "0xg|", "строка|", "user@example.org|email", "😀|" })
+	void matchesBuiltinCategories(String value, String expected) {
+		List<Category> list = new ArrayList<>(Categories.BUILTIN);
+		list.add(new Email());
+		Categories categories = new Categories(list);
+		int index = categories.match(value);
+		assertEquals(expected, index < 0 ? null : categories.get(index).name());
+		assertEquals(index, matchBytes(categories, value));
+	}
+
+	@DisplayName("Запись достаётся первой подошедшей категории в порядке перечисления")
+	@Test
+	void triesCategoriesInOrder() {
+		Category any = new Category() {
+			@Override
+			public String name() {
+				return "any";
+			}
+
+			@Override
+			public boolean matches(CharSequence value) {
+				return true;
+			}
+		};
+		Categories first = new Categories(List.of(any, Categories.BUILTIN.get(0)));
+		Categories second = new Categories(List.of(Categories.BUILTIN.get(0), any));
+		assertEquals(0, first.match("2024-01-01"));
+		assertEquals(0, second.match("2024-01-01"));
+		assertEquals(1, second.match("не дата"));
+		assertEquals(1, matchBytes(second, "не дата"));
+	}
+
+	@DisplayName("Категория не вызывается для записей с неподходящим первым символом или длиной")
+	@Test
+	void skipsByFirstCharAndLength() {
+		int[] calls = new int[1];
+		Category counted = new Category() {
+			@Override
+			public String name() {
+				return "counted";
+			}
+
+			@Override
+			public boolean matches(CharSequence value) {
+				calls[0]++;
+				return true;
+			}
+
+			@Override
+			public String firstChars() {
+				return "#я";
+			}
+
+			@Override
+			public int minLength() {
+				return 2;
+			}
+
+			@Override
+			public int maxLength() {
+				return 4;
+			}
+		};
+		Categories categories = new Categories(List.of(counted));
+		for (String value : List.of("abc", "#", "#abcd", "яяяяя")) {
+			assertEquals(-1, categories.match(value), value);
+			assertEquals(-1, matchBytes(categories, value), value);
+		}
+		assertEquals(0, calls[0]);
+		assertEquals(0, categories.match("#ab"));
+		assertEquals(0, matchBytes(categories, "яблк"));
+		assertEquals(2, calls[0]);
+	}
+
+	@DisplayName("Неизвестные, повторные и занятые имена категорий отклоняются")
+	@Test
+	void rejectsBadNames() {
+		assertThrows(IllegalArgumentException.class, () -> Categories.of(List.of("nope")));
+		assertThrows(IllegalArgumentException.class, () -> Categories.of(List.of("date", "date")));
+		for (String reserved : List.of("strings", "rejected", "all"))
+			assertThrows(IllegalArgumentException.class, () -> new Categories(List.of(named(reserved))));
+		assertTrue(Categories.available().keySet().containsAll(List.of("date", "uuid", "ipv4", "hex")));
+	}
+
+	private static Category named(String name) {
+		return new Category() {
+			@Override
+			public String name() {
+				return name;
+			}
+
+			@Override
+			public boolean matches(CharSequence value) {
+				return false;
+			}
+		};
+	}
+}
@@ -0,0 +1,127 @@
+package test.java.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import main.java.util.Classifier;
+import main.java.util.Classifier.Kind;
+import main.java.util.Stats;
+
+public class ClassifierTest {
+
+	// прежние проверки из Util - эталон для сравнения
+	static final Pattern numEx = Pattern.compile("^(0|-?[1-9][0-9]*)$");
+	static final Pattern decEx = Pattern.compile("^-?([0-9]*(\\.[0-9]+)?|\\.[0-9]+)([eE]-?[0-9]+)?$");
+
+	static final char[] alphabet = { '0', '1', '9', '-', '.', ',', 'e', 'E', ' ', '\t', 'x', '+', '٠' };
+
+	private static Kind expected(String line) {
+		if (numEx.matcher(line.trim()).matches())
+			return Kind.INTEGER;
+		if (decEx.matcher(line.replace(",", ".").trim()).matches())
+			return Kind.FLOAT;
+		return Kind.STRING;
+	}
+
+	private static void check(String line) {
+		assertEquals(expected(line), Classifier.classify(line), "строка [" + line + "]");
+	}
+
+	static Stream<String> resourceLines() throws IOException {
+		return Files.list(Path.of("src/test/resources")).flatMap(p -> {
+			try {
+				return Files.readAllLines(p, StandardCharsets.UTF_8).stream();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+	}
+
+	@DisplayName("Совпадает с регулярными выражениями на граничных случаях")
+	@ParameterizedTest(name = "[{0}]")
+	@ValueSource(strings = { "", " ", "-", "0", "-0", "00", "01", "10", "-10", "+1", "1.", ".5", "-.5", "0,5", "1,,5",
+			"1.2.3", "e5", "-e-5", "1e", "1e-", "1e-0", "1E10", "1.5e3", ".e1", "9.05e+7", " 42 ", "\t-7\t", "4 2",
+			" 42", "１２３", "0xFF", "3.14159π", "2392847833462476483477237478" })
+	void matchesRegexOnEdgeCases(String line) {
+		check(line);
+	}
+
+	@DisplayName("Совпадает с регулярными выражениями на всех коротких строках")
+	@Test
+	void matchesRegexExhaustively() {
+		char[] buf = new char[5];
+		for (int len = 0; len <= buf.length; len++) {
+			int total = (int) Math.pow(alphabet.length, len);
+			for (int n = 0; n < total; n++) {
+				int rest = n;
+				for (int i = 0; i < len; i++) {
+					buf[i] = alphabet[rest % alphabet.length];
+					rest /= alphabet.length;
+				}
+				check(new String(buf, 0, len));
+			}
+		}
+	}
+
+	@DisplayName("hasDigits отличает дробные, которые читает статистика, от \"-\" и \"e5\"")
+	@Test
+	void detectsFloatsWithoutDigits() {
+		char[] numeric = { '0', '7', '-', '.', ',', 'e' };
+		char[] buf = new char[4];
+		for (int len = 1; len <= buf.length; len++) {
+			int total = (int) Math.pow(numeric.length, len);
+			for (int n = 0; n < total; n++) {
+				int rest = n;
+				for (int i = 0; i < len; i++) {
+					buf[i] = numeric[rest % numeric.length];
+					rest /= numeric.length;
+				}
+				String line = new String(buf, 0, len);
+				if (Classifier.classify(line) != Kind.FLOAT)
+					continue;
+				boolean parsed = true;
+				try {
+					new Stats.DecAccumulator().add(line);
+				} catch (NumberFormatException e) {
+					parsed = false;
+				}
+				ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+				assertEquals(parsed, Classifier.hasDigits(line, 0, len), "строка [" + line + "]");
+				assertEquals(parsed, Classifier.hasDigits(bytes, 0, len), "строка [" + line + "]");
+			}
+		}
+	}
+
+	@DisplayName("Совпадает с регулярными выражениями на случайных строках")
+	@Test
+	void matchesRegexOnRandomLines() {
+		Random random = new Random(42);
+		for (int n = 0; n < 200_000; n++) {
+			char[] buf = new char[6 + random.nextInt(20)];
+			for (int i = 0; i < buf.length; i++)
+				buf[i] = random.nextInt(8) == 0 ? (char) random.nextInt(0x3000) : alphabet[random.nextInt(9)];
+			check(new String(buf));
+		}
+	}
+
+	@DisplayName("Совпадает с регулярными выражениями на тестовых файлах")
+	@ParameterizedTest(name = "строка #{index}")
+	@MethodSource("resourceLines")
+	void matchesRegexOnResources(String line) {
+		check(line);
+	}
+}
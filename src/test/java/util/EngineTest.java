@@ -0,0 +1,146 @@
+package test.java.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import main.java.util.Categories;
+import main.java.util.Engine;
+import main.java.util.Sink;
+import main.java.util.Sinks;
+
+public class EngineTest {
+
+	private static final String INPUT = "a\r\n 12 \n2,5\r\n\n2024-01-02\nпривет\r0x1F";
+
+	@DisplayName("Строки, разрезанные между пачками в любом месте, разбираются как целые")
+	@ParameterizedTest(name = "пачки по {0} байт")
+	@ValueSource(ints = { 1, 2, 3, 5, 64 })
+	void joinsLinesAcrossBatches(int size) {
+		Engine engine = new Engine(Categories.of(List.of("date", "hex")), false, false);
+		Sinks.Memory sink = Sinks.memory();
+		byte[] bytes = INPUT.getBytes(StandardCharsets.UTF_8);
+		try (Engine.Session session = engine.open(sink)) {
+			for (int i = 0; i < bytes.length; i += size)
+				session.push(ByteBuffer.wrap(bytes, i, Math.min(size, bytes.length - i)));
+		}
+
+		assertEquals(List.of("12"), sink.get(Engine.INTEGERS));
+		assertEquals(List.of("2.5"), sink.get(Engine.FLOATS));
+		assertEquals(List.of("a", "привет"), sink.get(Engine.STRINGS));
+		assertEquals(List.of("2024-01-02"), sink.get(Engine.CUSTOM));
+		assertEquals(List.of("0x1F"), sink.get(Engine.CUSTOM + 1));
+		assertEquals(List.of("integers", "floats", "strings", "date", "hex"), engine.categoryNames());
+	}
+
+	@DisplayName("Текст и байты дают одинаковые записи")
+	@Test
+	void acceptsCharSequences() {
+		Engine engine = new Engine();
+		Sinks.Memory chars = Sinks.memory();
+		Sinks.Memory bytes = Sinks.memory();
+		try (Engine.Session session = engine.open(chars)) {
+			session.push(new StringBuilder(INPUT.substring(0, 7)));
+			session.push(INPUT.substring(7));
+		}
+		try (Engine.Session session = engine.open(bytes)) {
+			session.push(ByteBuffer.wrap(INPUT.getBytes(StandardCharsets.UTF_8)));
+		}
+
+		for (int category = Engine.INTEGERS; category <= Engine.STRINGS; category++)
+			assertEquals(bytes.get(category), chars.get(category));
+		assertEquals(List.of("a", "2024-01-02", "привет", "0x1F"), chars.get(Engine.STRINGS));
+	}
+
+	@DisplayName("Статистика сеансов из разных потоков складывается в статистику движка")
+	@Test
+	void mergesStatisticsOfSessions() throws Exception {
+		Engine engine = new Engine(null, true, false);
+		List<Future<?>> futures = new ArrayList<>();
+		try (ExecutorService pool = Executors.newFixedThreadPool(4)) {
+			for (int t = 0; t < 4; t++) {
+				int from = t * 1000;
+				futures.add(pool.submit(() -> {
+					// записи сразу уходят дальше, здесь их только считаем
+					long[] count = new long[1];
+					Sink sink = (category, buf, start, end) -> count[0]++;
+					try (Engine.Session session = engine.open(sink)) {
+						for (int i = from + 1; i <= from + 1000; i++)
+							session.push(i + "\n");
+					}
+					assertEquals(1000, count[0]);
+					return null;
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get();
+		}
+
+		assertEquals(4000, engine.summary().ints().count());
+		assertEquals("4000", engine.summary().ints().result().max());
+		assertEquals("1", engine.summary().ints().result().min());
+		assertNull(new Engine().summary());
+	}
+
+	@DisplayName("Sinks.files пишет те же файлы, что и утилита")
+	@Test
+	void writesFiles(@TempDir Path tempDir) throws Exception {
+		Engine engine = new Engine();
+		Sink sink = Sinks.files(tempDir, "lib-", false, null);
+		try (Engine.Session session = engine.open(sink)) {
+			session.push(INPUT);
+		}
+		sink.close();
+
+		assertEquals(List.of("12"), Files.readAllLines(tempDir.resolve("lib-integers.txt")));
+		assertEquals(List.of("2.5"), Files.readAllLines(tempDir.resolve("lib-floats.txt")));
+		assertEquals(List.of("a", "2024-01-02", "привет", "0x1F"),
+				Files.readAllLines(tempDir.resolve("lib-strings.txt")));
+	}
+
+	@DisplayName("Суррогатная пара, разделённая между текстовыми пачками, не портится")
+	@Test
+	void joinsSurrogatePairsAcrossBatches() {
+		String emoji = "\uD83D\uDE00";
+		List<String> records = new ArrayList<>();
+		try (Engine.Session session = new Engine().open(Sinks.callback((value, category) -> records.add(value)))) {
+			session.push("a" + emoji.charAt(0));
+			session.push(emoji.charAt(1) + "b\n");
+			session.push(emoji.substring(0, 1));
+			session.push("");
+			session.push(emoji.substring(1) + "\n");
+			session.push("c" + emoji.charAt(0));
+		}
+
+		assertEquals(List.of("a" + emoji + "b", emoji, "c?"), records);
+	}
+
+	@DisplayName("Sinks.callback отдаёт записи строками, закрытый сеанс пачки не принимает")
+	@Test
+	void decodesForCallbacks() {
+		List<String> records = new ArrayList<>();
+		Engine.Session session = new Engine()
+				.open(Sinks.callback((value, category) -> records.add(category + ":" + value)));
+		session.push("x\n1\nбез перевода строки");
+		session.close();
+
+		assertEquals(List.of("2:x", "0:1", "2:без перевода строки"), records);
+		assertThrows(IllegalStateException.class, () -> session.push("2\n"));
+	}
+}
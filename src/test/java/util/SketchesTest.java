@@ -0,0 +1,114 @@
+package test.java.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import main.java.util.Classifier.Kind;
+import main.java.util.Sketches;
+import main.java.util.Stats;
+
+public class SketchesTest {
+
+	private static final double[] QUANTILES = { 0.01, 0.25, 0.5, 0.75, 0.95, 0.99 };
+
+	private static void assertRankError(long[] sorted, Sketches.Quantiles quantiles, double maxError) {
+		for (double q : QUANTILES) {
+			double value = quantiles.quantile(q);
+			int rank = Arrays.binarySearch(sorted, (long) value);
+			if (rank < 0)
+				rank = -rank - 1;
+			double error = Math.abs((double) rank / sorted.length - q);
+			assertTrue(error < maxError, "Квантиль " + q + ": ошибка ранга " + error);
+		}
+	}
+
+	@DisplayName("Квантили и количество различных чисел близки к точным, в том числе после объединения частей")
+	@ParameterizedTest(name = "частей: {0}")
+	@ValueSource(ints = { 1, 20 })
+	void estimatesQuantilesAndDistinct(int parts) {
+		Random random = new Random(parts);
+		int size = 300_000;
+		long[] values = new long[size];
+		List<Stats.Summary> partial = new ArrayList<>();
+		for (int p = 0; p < parts; p++)
+			partial.add(new Stats.Summary(true));
+		for (int i = 0; i < size; i++) {
+			// около 100 тысяч различных значений с перекосом в сторону малых
+			values[i] = (long) (Math.pow(random.nextDouble(), 3) * 100_000);
+			partial.get(i % parts).add(Kind.INTEGER, String.valueOf(values[i]));
+		}
+		Stats.Summary summary = new Stats.Summary(true);
+		for (Stats.Summary part : partial)
+			summary.merge(part);
+
+		Arrays.sort(values);
+		long distinct = Arrays.stream(values).distinct().count();
+		Sketches sketches = summary.sketches();
+		assertEquals(size, sketches.intQuantiles().count());
+		assertRankError(values, sketches.intQuantiles(), 0.02);
+		assertEquals(distinct, sketches.intDistinct().estimate(), distinct * 0.03);
+	}
+
+	@DisplayName("Строки из String и из байтов UTF-8 учитываются одинаково")
+	@Test
+	void sameSketchForStringsAndBytes() {
+		Stats.Summary fromStrings = new Stats.Summary(true);
+		Stats.Summary fromBytes = new Stats.Summary(true);
+		for (String value : List.of("строка", "😀 emoji", "", "a,b", "数据", "строка")) {
+			fromStrings.add(Kind.STRING, value);
+			ByteBuffer buf = ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+			fromBytes.add(Kind.STRING, buf, 0, buf.limit());
+		}
+		fromStrings.add(Kind.FLOAT, "1.5");
+		ByteBuffer decimal = ByteBuffer.wrap("1,5".getBytes(StandardCharsets.US_ASCII));
+		fromBytes.add(Kind.FLOAT, decimal, 0, decimal.limit());
+
+		assertEquals(5, fromStrings.sketches().strDistinct().estimate());
+		assertEquals(5, fromBytes.sketches().strDistinct().estimate());
+		assertEquals(Arrays.toString(fromStrings.sketches().lengths()),
+				Arrays.toString(fromBytes.sketches().lengths()));
+		fromStrings.merge(fromBytes);
+		assertEquals(5, fromStrings.sketches().strDistinct().estimate());
+		assertEquals(1, fromStrings.sketches().decDistinct().estimate());
+	}
+
+	@DisplayName("Скетчи сохраняются в файл статистики и загружаются без изменений")
+	@Test
+	void savesAndLoadsSketches(@TempDir Path tempDir) throws Exception {
+		Random random = new Random(5);
+		Stats.Summary summary = new Stats.Summary(true);
+		for (int i = 0; i < 50_000; i++) {
+			summary.add(Kind.INTEGER, String.valueOf(random.nextInt(10_000)));
+			summary.add(Kind.FLOAT, random.nextInt(100) + "." + random.nextInt(100));
+			summary.add(Kind.STRING, "x".repeat(random.nextInt(300)));
+		}
+		Path file = tempDir.resolve("sketch.stats");
+		summary.save(file);
+		Sketches loaded = Stats.Summary.load(file).sketches();
+		Sketches saved = summary.sketches();
+
+		for (double q : QUANTILES) {
+			assertEquals(saved.intQuantiles().quantile(q), loaded.intQuantiles().quantile(q));
+			assertEquals(saved.decQuantiles().quantile(q), loaded.decQuantiles().quantile(q));
+		}
+		assertEquals(saved.intQuantiles().count(), loaded.intQuantiles().count());
+		assertEquals(saved.intDistinct().estimate(), loaded.intDistinct().estimate());
+		assertEquals(saved.decDistinct().estimate(), loaded.decDistinct().estimate());
+		assertEquals(saved.strDistinct().estimate(), loaded.strDistinct().estimate());
+		assertEquals(Arrays.toString(saved.lengths()), Arrays.toString(loaded.lengths()));
+	}
+}
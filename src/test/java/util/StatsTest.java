@@ -6,15 +6,23 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.MathContext;
 import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
+import main.java.util.Classifier.Kind;
 import main.java.util.Stats;
 import main.java.util.Stats.IntResult;
 import main.java.util.Stats.DecResult;
@@ -43,7 +51,11 @@ public class StatsTest {
 				Arguments.of(Arrays.asList("-34565", "-3553", "0", "23", "9494"),
 						expIntRes("-34565", "9494", "-28601", "-5720.2")),
 				Arguments.of(Arrays.asList("9494", "23", "0", "-3553", "-34565"),
-						expIntRes("-34565", "9494", "-28601", "-5720.2")));
+						expIntRes("-34565", "9494", "-28601", "-5720.2")),
+				Arguments.of(Arrays.asList("9223372036854775807", "1", "-2"),
+						expIntRes("-2", "9223372036854775807", "9223372036854775806", "3074457345618258602")),
+				Arguments.of(Arrays.asList("9223372036854775807", "9223372036854775807", "-18446744073709551614"),
+						expIntRes("-18446744073709551614", "9223372036854775807", "0", "0")));
 	}
 
 	static Stream<Arguments> decInputCases() {
@@ -84,4 +96,130 @@ public class StatsTest {
 		assertEquals(0, expected.sum().compareTo(res.sum()), "sum" + res.sum() + ", ожидалось " + expected.sum());
 		assertEquals(0, expected.avg().compareTo(res.avg()), "avg " + res.avg() + ", ожидалось " + expected.avg());
 	}
+
+	private static String randomInt(Random random) {
+		return switch (random.nextInt(4)) {
+			case 0 -> String.valueOf(random.nextInt(2000) - 1000);
+			case 1 -> String.valueOf(random.nextLong());
+			case 2 -> random.nextBoolean() ? String.valueOf(Long.MAX_VALUE) : String.valueOf(Long.MIN_VALUE);
+			default -> new BigInteger(80 + random.nextInt(100), random)
+					.multiply(BigInteger.valueOf(random.nextBoolean() ? 1 : -1)).toString();
+		};
+	}
+
+	private static String randomDec(Random random) {
+		String unscaled = String.valueOf(random.nextInt(4) == 0 ? random.nextLong() : random.nextInt(100000) - 50000);
+		String digits = unscaled.startsWith("-") ? unscaled.substring(1) : unscaled;
+		String sign = unscaled.startsWith("-") ? "-" : "";
+		int point = random.nextInt(digits.length() + 1);
+		String num = sign + digits.substring(0, point) + "." + digits.substring(point);
+		if (num.endsWith("."))
+			num += "5";
+		return switch (random.nextInt(5)) {
+			case 0 -> num + "e" + (random.nextInt(40) - 20);
+			case 1 -> num + "E-" + random.nextInt(5);
+			case 2 -> num + "e" + (random.nextInt(700) - 350);
+			default -> num;
+		};
+	}
+
+	@DisplayName("Накопители совпадают с расчётом через BigInteger и BigDecimal")
+	@ParameterizedTest(name = "seed {0}")
+	@ValueSource(longs = { 1, 2, 3, 4, 5 })
+	void accumulatorsMatchReference(long seed) {
+		Random random = new Random(seed);
+		int size = 1 + random.nextInt(3000);
+		List<String> ints = new ArrayList<>();
+		List<String> decs = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			ints.add(randomInt(random));
+			decs.add(randomDec(random));
+		}
+
+		Stats.IntAccumulator intAcc = new Stats.IntAccumulator();
+		BigInteger intSum = BigInteger.ZERO;
+		BigInteger intMin = null;
+		BigInteger intMax = null;
+		for (String num : ints) {
+			intAcc.add(num);
+			BigInteger v = new BigInteger(num);
+			intSum = intSum.add(v);
+			intMin = intMin == null || v.compareTo(intMin) < 0 ? v : intMin;
+			intMax = intMax == null || v.compareTo(intMax) > 0 ? v : intMax;
+		}
+		IntResult intRes = intAcc.result();
+		assertEquals(intMin.toString(), intRes.min());
+		assertEquals(intMax.toString(), intRes.max());
+		assertEquals(intSum, intRes.sum());
+		assertEquals(new BigDecimal(intSum).divide(new BigDecimal(size), mc), intRes.avg());
+
+		Stats.DecAccumulator decAcc = new Stats.DecAccumulator();
+		BigDecimal decSum = BigDecimal.ZERO;
+		BigDecimal decMin = null;
+		BigDecimal decMax = null;
+		for (String num : decs) {
+			ByteBuffer buf = ByteBuffer.wrap(("  " + num.replace('.', ',') + " ").getBytes(StandardCharsets.US_ASCII));
+			decAcc.add(buf, 2, buf.limit() - 1);
+			BigDecimal v = new BigDecimal(num);
+			decSum = decSum.add(v);
+			decMin = decMin == null || v.compareTo(decMin) < 0 ? v : decMin;
+			decMax = decMax == null || v.compareTo(decMax) > 0 ? v : decMax;
+		}
+		DecResult decRes = decAcc.result();
+		assertEquals(decMin.toString(), decRes.min().toString());
+		assertEquals(decMax.toString(), decRes.max().toString());
+		assertEquals(decSum.round(mc).toString(), decRes.sum().toString());
+		assertEquals(decSum.divide(new BigDecimal(size), mc), decRes.avg());
+	}
+
+	private static void assertSameResults(Stats.Summary expected, Stats.Summary actual) {
+		assertEquals(expected.ints().count(), actual.ints().count());
+		assertEquals(expected.ints().result(), actual.ints().result());
+		assertEquals(expected.decimals().count(), actual.decimals().count());
+		DecResult exp = expected.decimals().result();
+		DecResult res = actual.decimals().result();
+		assertEquals(exp.min().toString(), res.min().toString());
+		assertEquals(exp.max().toString(), res.max().toString());
+		assertEquals(exp.sum().toString(), res.sum().toString());
+		assertEquals(exp.avg(), res.avg());
+		assertEquals(expected.strings().count(), actual.strings().count());
+		assertEquals(expected.strings().result(), actual.strings().result());
+	}
+
+	@DisplayName("Объединение частичной статистики и её сохранение в файл не меняют результат")
+	@ParameterizedTest(name = "seed {0}")
+	@ValueSource(longs = { 1, 2, 3 })
+	void mergesAndSavesPartialStatistics(long seed, @TempDir Path tempDir) throws Exception {
+		Random random = new Random(seed);
+		Stats.Summary whole = new Stats.Summary();
+		List<Stats.Summary> parts = new ArrayList<>();
+		for (int p = 0; p < 7; p++) {
+			Stats.Summary part = new Stats.Summary();
+			// пустые части тоже должны объединяться
+			int size = p == 3 ? 0 : random.nextInt(500);
+			for (int i = 0; i < size; i++) {
+				String num = randomInt(random);
+				String dec = randomDec(random);
+				String str = "x".repeat(random.nextInt(40));
+				for (Stats.Summary target : List.of(whole, part)) {
+					target.add(Kind.INTEGER, num);
+					target.add(Kind.FLOAT, dec);
+					target.add(Kind.STRING, str);
+				}
+			}
+			parts.add(part);
+		}
+
+		Stats.Summary merged = new Stats.Summary();
+		Stats.Summary loaded = new Stats.Summary();
+		for (int p = 0; p < parts.size(); p++) {
+			merged.merge(parts.get(p));
+			Path file = tempDir.resolve("part" + p + ".stats");
+			parts.get(p).save(file);
+			loaded.merge(Stats.Summary.load(file));
+		}
+
+		assertSameResults(whole, merged);
+		assertSameResults(whole, loaded);
+	}
 }
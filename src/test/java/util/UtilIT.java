@@ -3,16 +3,37 @@ package test.java.util;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
@@ -21,6 +42,11 @@ import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import io.airlift.compress.zstd.ZstdOutputStream;
+
+import main.java.util.Columnar;
 
 public class UtilIT {
 
@@ -28,10 +54,16 @@ public class UtilIT {
 	}
 
 	public static Result runJar(Path dir, String... extra) throws Exception {
+		return runJar(List.of(), dir, extra);
+	}
+
+	/** @param jvm опции JVM перед -jar */
+	public static Result runJar(List<String> jvm, Path dir, String... extra) throws Exception {
 		Path jar = Path.of("target", "sorting-util-1.0.jar");
 
-		List<String> cmd = new java.util.ArrayList<>();
+		List<String> cmd = new ArrayList<>();
 		cmd.add("java");
+		cmd.addAll(jvm);
 		cmd.add("-jar");
 		cmd.add(jar.toString());
 		cmd.add("-o");
@@ -146,4 +178,788 @@ public class UtilIT {
 				() -> assertTrue(Files.exists(tempDir.resolve("TEST-integers.txt"))),
 				() -> assertTrue(Files.exists(tempDir.resolve("TEST-floats.txt"))));
 	}
+
+	@DisplayName("С флагом -t читает файлы параллельно, сохраняя порядок строк")
+	@ParameterizedTest(name = "-t {0}")
+	@ValueSource(strings = { "4", "v" })
+	void keepsOrderInParallelMode(String threads, @TempDir Path tempDir) throws Exception {
+		String[] inputs = { "src/test/resources/numbers.txt", "src/test/resources/simple.txt",
+				"src/test/resources/languages.txt", "src/test/resources/long-line.txt",
+				"src/test/resources/emoji.txt", "src/test/resources/numbers.txt" };
+		Path seqDir = Files.createDirectory(tempDir.resolve("seq"));
+		Path parDir = Files.createDirectory(tempDir.resolve("par"));
+
+		runJar(seqDir, inputs);
+		List<String> args = new ArrayList<>(List.of("-t", threads));
+		args.addAll(Arrays.asList(inputs));
+		Result res = runJar(parDir, args.toArray(String[]::new));
+
+		assertTrue(res.exitCode == 0);
+		for (String fname : List.of("integers.txt", "floats.txt", "strings.txt")) {
+			assertArrayEquals(Files.readAllBytes(seqDir.resolve(fname)), Files.readAllBytes(parDir.resolve(fname)),
+					"Содержимое " + fname + " должно совпадать с последовательным режимом");
+		}
+	}
+
+	@DisplayName("С флагом --split делит большой файл на куски без изменения результата")
+	@Test
+	void splitsLargeFileByLines(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("large.txt");
+		Random random = new Random(7);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 400_000; i++) {
+			switch (random.nextInt(5)) {
+				case 0 -> sb.append(random.nextLong()).append('\n');
+				case 1 -> sb.append(random.nextDouble()).append("\r\n");
+				case 2 -> sb.append("строка ").append(i).append('\r');
+				case 3 -> sb.append("  \n");
+				default -> sb.append("😀 ").append(i).append('\n');
+			}
+		}
+		Files.writeString(input, sb, StandardCharsets.UTF_8);
+		Path seqDir = Files.createDirectory(tempDir.resolve("seq"));
+		Path parDir = Files.createDirectory(tempDir.resolve("par"));
+
+		runJar(seqDir, input.toString());
+		Result res = runJar(parDir, "-t", "3", "--split", "1", input.toString());
+
+		assertTrue(res.exitCode == 0);
+		for (String fname : List.of("integers.txt", "floats.txt", "strings.txt")) {
+			assertArrayEquals(Files.readAllBytes(seqDir.resolve(fname)), Files.readAllBytes(parDir.resolve(fname)),
+					"Содержимое " + fname + " должно совпадать с последовательным режимом");
+		}
+	}
+
+	@DisplayName("С флагом --mmap результат совпадает с обычным чтением")
+	@ParameterizedTest(name = "{0}")
+	@ValueSource(strings = { "--mmap", "--mmap -t 3 --split 1" })
+	void mappedReaderMatchesReadLine(String param, @TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("mixed.bin");
+		Random random = new Random(11);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.writeBytes(new byte[] { (byte) 0xef, (byte) 0xbb, (byte) 0xbf });
+		String[] samples = { "42", " -17 ", "0,5", "3.5e-2", "\u3000", "\u00a0", "\u0001", "текст", "😀", "\t\t" };
+		String[] separators = { "\n", "\r", "\r\n" };
+		for (int i = 0; i < 300_000; i++) {
+			if (random.nextInt(50) == 0)
+				bytes.writeBytes(new byte[] { 'x', (byte) 0xc3, '(', (byte) 0xed, (byte) 0xa0, (byte) 0x80 });
+			else
+				bytes.writeBytes(samples[random.nextInt(samples.length)].getBytes(StandardCharsets.UTF_8));
+			bytes.writeBytes(separators[random.nextInt(separators.length)].getBytes());
+		}
+		bytes.writeBytes("последняя строка\r".getBytes(StandardCharsets.UTF_8));
+		Files.write(input, bytes.toByteArray());
+		Path seqDir = Files.createDirectory(tempDir.resolve("seq"));
+		Path mapDir = Files.createDirectory(tempDir.resolve("map"));
+
+		Result expected = runJar(seqDir, "-s", input.toString());
+		List<String> args = new ArrayList<>(List.of("-s"));
+		args.addAll(Arrays.asList(param.split(" ")));
+		args.add(input.toString());
+		Result res = runJar(mapDir, args.toArray(String[]::new));
+
+		assertTrue(res.exitCode == 0);
+		assertTrue(res.stdout.equals(expected.stdout), "Вывод должен совпадать:\n" + res.stdout);
+		for (String fname : List.of("integers.txt", "floats.txt", "strings.txt")) {
+			assertArrayEquals(Files.readAllBytes(seqDir.resolve(fname)), Files.readAllBytes(mapDir.resolve(fname)),
+					"Содержимое " + fname + " должно совпадать с обычным чтением");
+		}
+	}
+
+	@DisplayName("Размер буфера и режим --fsync не меняют результат")
+	@ParameterizedTest(name = "{0}")
+	@ValueSource(strings = { "--buffer 1", "--buffer 1 --mmap", "--buffer 4 --fsync 1", "--fsync end" })
+	void writesSameDataWithAnyBuffer(String param, @TempDir Path tempDir) throws Exception {
+		String[] inputs = { "src/test/resources/long-line.txt", "src/test/resources/numbers.txt",
+				"src/test/resources/languages.txt", "src/test/resources/long-line.txt" };
+		Path seqDir = Files.createDirectory(tempDir.resolve("seq"));
+		Path bufDir = Files.createDirectory(tempDir.resolve("buf"));
+
+		runJar(seqDir, inputs);
+		List<String> args = new ArrayList<>(Arrays.asList(param.split(" ")));
+		args.addAll(Arrays.asList(inputs));
+		Result res = runJar(bufDir, args.toArray(String[]::new));
+
+		assertTrue(res.exitCode == 0);
+		for (String fname : List.of("integers.txt", "floats.txt", "strings.txt")) {
+			assertArrayEquals(Files.readAllBytes(seqDir.resolve(fname)), Files.readAllBytes(bufDir.resolve(fname)),
+					"Содержимое " + fname + " не должно зависеть от буфера");
+		}
+	}
+
+	@DisplayName("Дробное число длиннее буфера записывается с '.' вместо ','")
+	@ParameterizedTest(name = "{0}")
+	@ValueSource(strings = { "--buffer 1", "--buffer 1 --mmap", "--buffer 1 --gzip --mmap" })
+	void writesDecimalLongerThanBuffer(String param, @TempDir Path tempDir) throws Exception {
+		String digits = "1".repeat(1500);
+		Path input = tempDir.resolve("long-float.txt");
+		Files.write(input, List.of("2,5", digits + "," + digits, "-" + digits + "." + digits));
+		List<String> args = new ArrayList<>(Arrays.asList(param.split(" ")));
+		args.add(input.toString());
+		Path outDir = tempDir.resolve("out");
+		Result res = runJar(outDir, args.toArray(String[]::new));
+
+		assertTrue(res.exitCode == 0, res.stdout);
+		Path floats = outDir.resolve(param.contains("--gzip") ? "floats.txt.gz" : "floats.txt");
+		byte[] bytes = Files.readAllBytes(floats);
+		if (param.contains("--gzip"))
+			bytes = new GZIPInputStream(new ByteArrayInputStream(bytes)).readAllBytes();
+		String expected = String.join(System.lineSeparator(), "2.5", digits + "." + digits, "-" + digits + "." + digits)
+				+ System.lineSeparator();
+		assertTrue(new String(bytes, Charset.forName("UTF-8")).equals(expected));
+	}
+
+	@DisplayName("Статистика, сохранённая по частям, объединяется в ту же, что и за один запуск")
+	@Test
+	void mergesSavedStatistics(@TempDir Path tempDir) throws Exception {
+		String first = "src/test/resources/numbers.txt";
+		String second = "src/test/resources/simple.txt";
+		Path a = tempDir.resolve("a.stats");
+		Path b = tempDir.resolve("b.stats");
+
+		Result whole = runJar(tempDir, "-f", first, second, "src/test/resources/languages.txt");
+		Result parallel = runJar(tempDir, "-f", "-t", "2", first, second, "src/test/resources/languages.txt");
+		runJar(tempDir, "--stats-save", a.toString(), first);
+		runJar(tempDir, "--stats-save", b.toString(), second);
+		Result merged = runJar(tempDir, "-f", "--stats-merge", a.toString(), "--stats-merge", b.toString(),
+				"src/test/resources/languages.txt");
+		Result mergedOnly = runJar(tempDir, "--stats-merge", a.toString(), "--stats-merge", b.toString());
+
+		String expected = whole.stdout.substring(whole.stdout.indexOf("Максимальная длина"));
+		assertTrue(parallel.stdout.endsWith(expected), "В режиме -t статистика должна совпадать:\n" + parallel.stdout);
+		assertTrue(merged.stdout.endsWith(expected), "Объединённая статистика должна совпадать:\n" + merged.stdout);
+		assertTrue(mergedOnly.exitCode == 0);
+		assertTrue(mergedOnly.stdout.contains("Сумма: 34596878549342348568453494831424291804874918952624073"),
+				"Без входных файлов должна выводиться объединённая статистика:\n" + mergedOnly.stdout);
+	}
+
+	@DisplayName("С флагом --sort сортирует выходные файлы, в том числе через временные файлы")
+	@Test
+	void sortsOutputFiles(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("unsorted.txt");
+		Random random = new Random(11);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100_000; i++) {
+			switch (random.nextInt(5)) {
+				case 0 -> sb.append(random.nextLong());
+				case 1 -> sb.append(new BigInteger(90, random).subtract(BigInteger.ONE.shiftLeft(89)));
+				case 2 -> sb.append(random.nextGaussian() * 1000);
+				case 3 -> sb.append("строка ").append(random.nextInt(1000));
+				default -> sb.append(random.nextBoolean() ? "😀 " : "Zz ").append(random.nextInt(1000));
+			}
+			sb.append('\n');
+		}
+		Files.writeString(input, sb, StandardCharsets.UTF_8);
+		Path plainDir = Files.createDirectory(tempDir.resolve("plain"));
+		Path sortedDir = Files.createDirectory(tempDir.resolve("sorted"));
+
+		runJar(plainDir, input.toString());
+		Result res = runJar(sortedDir, "--sort", "--sort-memory", "1", input.toString());
+
+		assertTrue(res.exitCode == 0);
+		Map<String, Comparator<String>> orders = Map.of(
+				"integers.txt", Comparator.comparing(BigInteger::new),
+				"floats.txt", Comparator.comparing(BigDecimal::new),
+				"strings.txt", (a, b) -> Arrays.compareUnsigned(
+						a.getBytes(StandardCharsets.UTF_8),
+						b.getBytes(StandardCharsets.UTF_8)));
+		for (var order : orders.entrySet()) {
+			List<String> expected = new ArrayList<>(Files.readAllLines(plainDir.resolve(order.getKey())));
+			expected.sort(order.getValue());
+			assertTrue(expected.equals(Files.readAllLines(sortedDir.resolve(order.getKey()))),
+					"Файл " + order.getKey() + " должен быть отсортирован");
+		}
+		try (Stream<Path> files = Files.list(sortedDir)) {
+			assertTrue(files.count() == 3, "Временные файлы сортировки должны удаляться");
+		}
+	}
+
+	@DisplayName("Читает входные файлы .gz и пишет сжатые выходные файлы, в том числе в режиме -a")
+	@Test
+	void readsAndWritesGzip(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("large.txt");
+		Path compressed = tempDir.resolve("large.txt.gz");
+		Random random = new Random(3);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200_000; i++) {
+			switch (random.nextInt(3)) {
+				case 0 -> sb.append(random.nextInt()).append('\n');
+				case 1 -> sb.append(random.nextDouble()).append('\n');
+				default -> sb.append("строка ").append(random.nextInt(1000)).append('\n');
+			}
+		}
+		Files.writeString(input, sb, StandardCharsets.UTF_8);
+		try (var out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+			Files.copy(input, out);
+		}
+		Path plainDir = Files.createDirectory(tempDir.resolve("plain"));
+		Path gzipDir = Files.createDirectory(tempDir.resolve("gzip"));
+
+		runJar(plainDir, input.toString(), "src/test/resources/simple.txt");
+		runJar(plainDir, "-a", input.toString(), "src/test/resources/simple.txt");
+		// маленький буфер: много блоков gzip в одном файле
+		Result res = runJar(gzipDir, "--gzip", "--buffer", "16", compressed.toString(), "src/test/resources/simple.txt");
+		runJar(gzipDir, "-a", "--gzip-level", "1", "-t", "2", "--mmap", compressed.toString(),
+				"src/test/resources/simple.txt");
+
+		assertTrue(res.exitCode == 0);
+		for (String fname : List.of("integers", "floats", "strings")) {
+			byte[] unpacked;
+			try (var in = new GZIPInputStream(Files.newInputStream(gzipDir.resolve(fname + ".txt.gz")))) {
+				unpacked = in.readAllBytes();
+			}
+			assertArrayEquals(Files.readAllBytes(plainDir.resolve(fname + ".txt")), unpacked,
+					"Распакованный " + fname + ".txt.gz должен совпадать с обычным выводом");
+		}
+	}
+
+	@DisplayName("Читает входные файлы zstd из нескольких кадров, в том числе из stdin и с --resume по дописанным кадрам")
+	@Test
+	void readsZstdInputs(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("large.txt");
+		Path compressed = tempDir.resolve("large.zst");
+		Random random = new Random(29);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100_000; i++) {
+			switch (random.nextInt(3)) {
+				case 0 -> sb.append(random.nextInt()).append('\n');
+				case 1 -> sb.append(random.nextDouble()).append('\n');
+				default -> sb.append("строка ").append(random.nextInt(1000)).append('\n');
+			}
+		}
+		byte[] text = sb.toString().getBytes(StandardCharsets.UTF_8);
+		// кадр, как и член gzip, дописывается целыми строками
+		int half = sb.indexOf("\n", sb.length() / 2) + 1;
+		half = sb.substring(0, half).getBytes(StandardCharsets.UTF_8).length;
+		byte[] first = zstd(Arrays.copyOfRange(text, 0, half));
+		byte[] second = zstd(Arrays.copyOfRange(text, half, text.length));
+		Files.write(input, text);
+		Path plainDir = Files.createDirectory(tempDir.resolve("plain"));
+		Path zstdDir = Files.createDirectory(tempDir.resolve("zstd"));
+		Path resumeDir = tempDir.resolve("resume");
+
+		// второй кадр дописывается позже: --resume продолжает с конца первого
+		Files.write(compressed, first);
+		runJar(resumeDir, "--resume", compressed.toString());
+		Files.write(compressed, second, StandardOpenOption.APPEND);
+		runJar(resumeDir, "--resume", "-t", "2", compressed.toString());
+
+		runJar(plainDir, input.toString());
+		Result res = runJar(zstdDir, compressed.toString());
+		String stdin = pipe(Files.readAllBytes(compressed), "-o", tempDir.resolve("stdin").toString(), "--stdout",
+				"integers", "-");
+
+		assertTrue(res.exitCode == 0, res.stdout);
+		for (String fname : List.of("integers.txt", "floats.txt", "strings.txt")) {
+			byte[] expected = Files.readAllBytes(plainDir.resolve(fname));
+			assertArrayEquals(expected, Files.readAllBytes(zstdDir.resolve(fname)),
+					"Содержимое " + fname + " из zstd должно совпадать с обычным файлом");
+			assertArrayEquals(expected, Files.readAllBytes(resumeDir.resolve(fname)),
+					"Содержимое " + fname + " после дописанного кадра должно совпадать с обработкой файла целиком");
+		}
+		assertTrue(stdin.equals(Files.readString(plainDir.resolve("integers.txt")).replace(System.lineSeparator(), "\n")),
+				"stdin в zstd должен разбираться так же, как обычный файл");
+	}
+
+	@DisplayName("С флагом --resume обрабатывает только дописанные строки и отрезает вывод прерванного запуска")
+	@Test
+	void resumesFromManifest(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("growing.txt");
+		Random random = new Random(13);
+		StringBuilder all = new StringBuilder();
+		for (int i = 0; i < 60_000; i++) {
+			switch (random.nextInt(3)) {
+				case 0 -> all.append(random.nextInt()).append('\n');
+				case 1 -> all.append(random.nextDouble()).append("\r\n");
+				default -> all.append("строка ").append(i).append('\n');
+			}
+		}
+		String text = all.toString();
+		Path outDir = tempDir.resolve("out");
+		Path refDir = Files.createDirectory(tempDir.resolve("ref"));
+
+		// первая часть обрывается посреди строки, вторая - между '\r' и '\n'
+		int first = text.length() / 3 + 3;
+		int second = text.indexOf("\r\n", 2 * text.length() / 3) + 1;
+		Files.writeString(input, text.substring(0, first));
+		runJar(outDir, "--resume", input.toString());
+		Files.writeString(input, text.substring(first, second), StandardOpenOption.APPEND);
+		runJar(outDir, "--resume", "-t", "2", "--checkpoint", "1", "--mmap", input.toString());
+		// строки, которые упавший запуск успел записать после последней отметки
+		Files.writeString(outDir.resolve("strings.txt"), "дубликат\n", StandardOpenOption.APPEND);
+		Files.writeString(input, text.substring(second), StandardOpenOption.APPEND);
+		Result res = runJar(outDir, "--resume", input.toString());
+		Result again = runJar(outDir, "--resume", input.toString());
+
+		runJar(refDir, input.toString());
+		assertTrue(res.exitCode == 0);
+		assertTrue(again.stdout.contains("Новых строк"), again.stdout);
+		for (String fname : List.of("integers.txt", "floats.txt", "strings.txt")) {
+			assertArrayEquals(Files.readAllBytes(refDir.resolve(fname)), Files.readAllBytes(outDir.resolve(fname)),
+					"Содержимое " + fname + " должно совпадать с обработкой файла целиком");
+		}
+	}
+
+	@DisplayName("С флагом --resume запуск, убитый до первой отметки или после появления нового файла категории, не дублирует строк")
+	@Test
+	void resumesAfterKill(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("big.txt");
+		Random random = new Random(17);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 1_500_000; i++)
+			lines.add(i % 2 == 0 ? String.valueOf(random.nextInt()) : "строка " + i);
+		// записи категории только во второй половине
+		for (int i = 0; i < 1_500_000; i++)
+			lines.add(i % 2 == 0 ? String.valueOf(random.nextInt()) : "0x" + Integer.toHexString(i));
+		Files.write(input, lines);
+		Path refDir = tempDir.resolve("ref");
+		runJar(refDir, "--category", "hex", input.toString());
+
+		// без отметок до конца файла
+		Path early = tempDir.resolve("early");
+		killWhenWritten(early.resolve("integers.txt"), early, "--resume", "--buffer", "1", "--category", "hex",
+				input.toString());
+		// отметки каждый мегабайт, а hex.txt появляется после какой-то из них
+		Path late = tempDir.resolve("late");
+		killWhenWritten(late.resolve("hex.txt"), late, "--resume", "--buffer", "1", "--checkpoint", "1", "--split",
+				"1", "--category", "hex", input.toString());
+
+		for (Path dir : List.of(early, late)) {
+			Result res = runJar(dir, "--resume", "--category", "hex", input.toString());
+			assertTrue(res.exitCode == 0, res.stdout);
+			for (String fname : List.of("integers.txt", "strings.txt", "hex.txt"))
+				assertArrayEquals(Files.readAllBytes(refDir.resolve(fname)), Files.readAllBytes(dir.resolve(fname)),
+						dir.getFileName() + "/" + fname);
+		}
+	}
+
+	/** Запускает утилиту и убивает её, как только в file что-то записано. */
+	private static void killWhenWritten(Path file, Path dir, String... args) throws Exception {
+		List<String> cmd = new ArrayList<>(
+				List.of("java", "-jar", Path.of("target", "sorting-util-1.0.jar").toString(), "-o", dir.toString()));
+		cmd.addAll(Arrays.asList(args));
+		Process p = new ProcessBuilder(cmd).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+				.redirectError(ProcessBuilder.Redirect.DISCARD).start();
+		while (p.isAlive() && !(Files.exists(file) && Files.size(file) > 0))
+			Thread.sleep(5);
+		p.destroyForcibly().waitFor();
+	}
+
+	@DisplayName("С флагом --resume после ошибки чтения отметки не сохраняются, и следующий запуск не дублирует строк")
+	@Test
+	void resumesAfterReadError(@TempDir Path tempDir) throws Exception {
+		Path good = tempDir.resolve("good.txt");
+		Files.write(good, List.of("1", "a"));
+		// gzip обрывается посреди данных: часть строк прочитана, потом ошибка
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		try (GZIPOutputStream gz = new GZIPOutputStream(gzipped)) {
+			for (int i = 0; i < 200_000; i++)
+				gz.write((i + "\nстрока " + i + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		byte[] bytes = gzipped.toByteArray();
+		Path broken = tempDir.resolve("broken.txt.gz");
+		Files.write(broken, Arrays.copyOf(bytes, bytes.length / 2));
+		Path refDir = tempDir.resolve("ref");
+		for (String mode : List.of("1", "2")) {
+			Path outDir = tempDir.resolve("out" + mode);
+			runJar(refDir, "-t", mode, good.toString(), broken.toString());
+			Result first = runJar(outDir, "--resume", "-t", mode, good.toString(), broken.toString());
+			Result second = runJar(outDir, "--resume", "-t", mode, good.toString(), broken.toString());
+
+			assertTrue(first.stdout.contains("Ошибка при прочтении файла " + broken), first.stdout);
+			assertTrue(second.stdout.contains("отметки в "), second.stdout);
+			for (String fname : List.of("integers.txt", "strings.txt"))
+				assertArrayEquals(Files.readAllBytes(refDir.resolve(fname)), Files.readAllBytes(outDir.resolve(fname)),
+						"-t " + mode + ": " + fname);
+		}
+	}
+
+	@DisplayName("С флагом --category выделяет даты, UUID, адреса и 0x-числа в отдельные файлы")
+	@Test
+	void splitsRecordsIntoCategories(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("mixed.txt");
+		Files.writeString(input, String.join("\n", "2024-05-01", "42", " 10.0.0.1 ", "0xFF", "просто строка",
+				"550e8400-e29b-41d4-a716-446655440000", "2024-02-30", "1.5", "2024-05-01T12:00:00Z", "") + "\n");
+		Path seqDir = tempDir.resolve("seq");
+		Path parDir = tempDir.resolve("par");
+		Result res = runJar(seqDir, "-f", "--category", "date,ipv4", "--category", "uuid,hex", input.toString());
+		runJar(parDir, "--category", "date,ipv4,uuid,hex", "--mmap", "-t", "2", input.toString());
+
+		assertTrue(res.exitCode == 0);
+		assertTrue(res.stdout.contains("Категория date, записей: 2"), res.stdout);
+		assertTrue(res.stdout.contains("Максимальная длина записи: 20"), res.stdout);
+		assertArrayEquals(new String[] { "2024-05-01", "2024-05-01T12:00:00Z" },
+				Files.readAllLines(seqDir.resolve("date.txt")).toArray());
+		assertArrayEquals(new String[] { "10.0.0.1" }, Files.readAllLines(seqDir.resolve("ipv4.txt")).toArray());
+		assertArrayEquals(new String[] { "0xFF" }, Files.readAllLines(seqDir.resolve("hex.txt")).toArray());
+		assertArrayEquals(new String[] { "просто строка", "2024-02-30" },
+				Files.readAllLines(seqDir.resolve("strings.txt")).toArray());
+		for (String fname : List.of("integers.txt", "floats.txt", "strings.txt", "date.txt", "uuid.txt", "ipv4.txt",
+				"hex.txt")) {
+			assertArrayEquals(Files.readAllBytes(seqDir.resolve(fname)), Files.readAllBytes(parDir.resolve(fname)),
+					"Содержимое " + fname + " не должно зависеть от способа чтения");
+		}
+	}
+
+	@DisplayName("С флагом --metrics записывает показатели запуска в JSON и в формате Prometheus")
+	@Test
+	void writesRunMetrics(@TempDir Path tempDir) throws Exception {
+		Path json = tempDir.resolve("metrics.json");
+		Path prom = tempDir.resolve("metrics.prom");
+		Result res = runJar(tempDir, "-t", "2", "--gzip", "--sort", "--metrics", json.toString(),
+				"src/test/resources/simple.txt", "src/test/resources/numbers.txt");
+		runJar(tempDir, "-f", "--metrics", prom.toString(), "src/test/resources/simple.txt");
+		Result stdout = runJar(tempDir, "--metrics", "-", "--metrics-format", "prometheus",
+				"src/test/resources/simple.txt");
+
+		long lines = Stream.of("simple.txt", "numbers.txt").mapToLong(name -> {
+			try {
+				return Files.readAllLines(Path.of("src/test/resources", name)).stream().filter(l -> !l.isBlank())
+						.count();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}).sum();
+		String metrics = Files.readString(json);
+		assertTrue(res.exitCode == 0);
+		assertTrue(metrics.contains("\"lines\": " + lines + ","), metrics);
+		assertTrue(metrics.contains("\"name\": \"src/test/resources/numbers.txt\""), metrics);
+		for (String stage : List.of("read", "classify", "stats", "write", "compress", "sort"))
+			assertTrue(metrics.contains("\"" + stage + "\": "), metrics);
+		assertTrue(Files.readString(prom).contains("sorting_util_stage_seconds{stage=\"read\"}"));
+		assertTrue(stdout.stdout.contains("sorting_util_file_lines_total{file=\"src/test/resources/simple.txt\"}"),
+				stdout.stdout);
+	}
+
+	@DisplayName("С флагом --watch дописывает новые строки по мере появления и выводит итог после остановки")
+	@Test
+	void watchesGrowingFiles(@TempDir Path tempDir) throws Exception {
+		Path inDir = Files.createDirectory(tempDir.resolve("in"));
+		Path outDir = tempDir.resolve("out");
+		Files.writeString(inDir.resolve("a.txt"), "1\nпервая\n");
+		Process p = new ProcessBuilder("java", "-jar", Path.of("target", "sorting-util-1.0.jar").toString(), "-o",
+				outDir.toString(), "-s", "--watch", "--report", "1", inDir.toString()).redirectErrorStream(true)
+				.start();
+		try {
+			awaitContent(outDir.resolve("strings.txt"), "первая\n");
+			// недописанная строка ждёт перевода строки
+			Files.writeString(inDir.resolve("a.txt"), "2.5\nвто", StandardOpenOption.APPEND);
+			Files.writeString(inDir.resolve("b.txt"), "42\n");
+			awaitContent(outDir.resolve("integers.txt"), "1\n42\n");
+			Files.writeString(inDir.resolve("a.txt"), "рая\n", StandardOpenOption.APPEND);
+			awaitContent(outDir.resolve("strings.txt"), "первая\nвторая\n");
+		} finally {
+			p.toHandle().destroy();
+		}
+		String out = new String(p.getInputStream().readAllBytes(), Charset.forName("UTF-8"));
+		p.waitFor();
+		assertTrue(out.endsWith("В файл strings.txt записано строк: 2 \n"), out);
+		assertArrayEquals(new String[] { "2.5" }, Files.readAllLines(outDir.resolve("floats.txt")).toArray());
+	}
+
+	@DisplayName("Читает stdin (в том числе gzip) и пишет выбранную категорию или все с метками в stdout")
+	@Test
+	void pipesStdinToStdout(@TempDir Path tempDir) throws Exception {
+		String input = String.join("\n", "a", "1", "2,5", "b", "2024-01-02", "") + "\n";
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		try (GZIPOutputStream gz = new GZIPOutputStream(gzipped)) {
+			gz.write(input.getBytes(Charset.forName("UTF-8")));
+		}
+		Path oneDir = tempDir.resolve("one");
+		String integers = pipe(input.getBytes(Charset.forName("UTF-8")), "-o", oneDir.toString(), "-s", "--stdout",
+				"integers", "-");
+		String all = pipe(gzipped.toByteArray(), "-o", tempDir.resolve("all").toString(), "-t", "2", "--category",
+				"date", "--stdout", "all", "-");
+
+		assertTrue(integers.equals("1\n"), integers);
+		assertFalse(Files.exists(oneDir.resolve("integers.txt")));
+		assertArrayEquals(new String[] { "a", "b", "2024-01-02" },
+				Files.readAllLines(oneDir.resolve("strings.txt")).toArray());
+		assertTrue(all.equals("strings\ta\nintegers\t1\nfloats\t2.5\nstrings\tb\ndate\t2024-01-02\n"), all);
+		assertFalse(Files.exists(tempDir.resolve("all")) && Files.list(tempDir.resolve("all")).findAny().isPresent());
+	}
+
+	@DisplayName("С флагом --dedup пропускает повторы в каждой категории, в том числе после перехода на временный файл")
+	@Test
+	void skipsDuplicates(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("repeats.txt");
+		List<String> lines = new ArrayList<>(List.of("1", " 1", "2,5", "2.5", "a", "a ", "a", "0x1", "0x1"));
+		// больше 1 МБ различных записей: с --dedup-memory 1 часть уйдёт во временный файл
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < 60_000; i++)
+				lines.add("запись номер " + i);
+		}
+		Files.write(input, lines);
+		Path seqDir = tempDir.resolve("seq");
+		Path parDir = tempDir.resolve("par");
+		Result res = runJar(seqDir, "-s", "--dedup-memory", "1", "--category", "hex", input.toString());
+		runJar(parDir, "--dedup", "--mmap", "-t", "2", "--split", "1", "--category", "hex", input.toString());
+
+		assertTrue(res.exitCode == 0);
+		assertTrue(res.stdout.contains("В файл strings.txt записано строк: 60002"), res.stdout);
+		assertTrue(res.stdout.contains("пропущено повторов: 60001"), res.stdout);
+		assertTrue(res.stdout.contains("временном файле"), res.stdout);
+		assertArrayEquals(new String[] { "1" }, Files.readAllLines(seqDir.resolve("integers.txt")).toArray());
+		assertArrayEquals(new String[] { "2.5" }, Files.readAllLines(seqDir.resolve("floats.txt")).toArray());
+		assertArrayEquals(new String[] { "0x1" }, Files.readAllLines(seqDir.resolve("hex.txt")).toArray());
+		for (String fname : List.of("integers.txt", "floats.txt", "strings.txt", "hex.txt"))
+			assertArrayEquals(Files.readAllBytes(seqDir.resolve(fname)), Files.readAllBytes(parDir.resolve(fname)));
+		try (Stream<Path> files = Files.list(seqDir)) {
+			assertFalse(files.anyMatch(file -> file.getFileName().toString().endsWith(".dedup")));
+		}
+	}
+
+	@DisplayName("--dedup-memory больше -XX:MaxDirectMemorySize урезается, и повторы дальше ищутся во временном файле")
+	@Test
+	void capsDedupMemory(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("unique.txt");
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 1_500_000; i++)
+			lines.add("запись " + i);
+		Files.write(input, lines);
+		Result res = runJar(List.of("-XX:MaxDirectMemorySize=32m"), tempDir.resolve("out"), "-s", "--dedup-memory",
+				"4096", input.toString());
+
+		assertTrue(res.exitCode == 0, res.stdout);
+		assertTrue(res.stdout.contains("не больше 24 МБ") && res.stdout.contains("временном файле"), res.stdout);
+		assertTrue(res.stdout.contains("В файл strings.txt записано строк: 1500000"), res.stdout);
+	}
+
+	@DisplayName("Error в потоке чтения (нехватка памяти на длинной строке) не вешает параллельный режим")
+	@Test
+	void reportsErrorInReaderThread(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("huge-line.txt");
+		try (Writer writer = Files.newBufferedWriter(input)) {
+			writer.write("1\n");
+			for (int i = 0; i < 80; i++)
+				writer.write("x".repeat(1_000_000));
+			writer.write("\n");
+		}
+		Result res = assertTimeoutPreemptively(Duration.ofSeconds(60),
+				() -> runJar(List.of("-Xmx64m"), tempDir.resolve("out"), "-t", "2", "-s", input.toString()));
+
+		assertTrue(res.stdout.contains("OutOfMemoryError"), res.stdout);
+		assertTrue(res.stdout.contains("Ошибка при прочтении файла " + input), res.stdout);
+	}
+
+	@DisplayName("После куска с ошибкой остальные куски файла не пишутся, как и при последовательном чтении")
+	@Test
+	void skipsRestOfFileAfterFailedRange(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("huge-line.txt");
+		try (Writer writer = Files.newBufferedWriter(input)) {
+			writer.write("1\n");
+			for (int i = 0; i < 80; i++)
+				writer.write("x".repeat(1_000_000));
+			writer.write("\n2\n3\n");
+		}
+		Path next = tempDir.resolve("next.txt");
+		Files.write(next, List.of("4"));
+		Path outDir = tempDir.resolve("out");
+		Result res = assertTimeoutPreemptively(Duration.ofSeconds(60), () -> runJar(List.of("-Xmx64m"), outDir, "-t",
+				"2", "--split", "1", input.toString(), next.toString()));
+
+		assertTrue(res.stdout.contains("Ошибка при прочтении файла " + input), res.stdout);
+		assertArrayEquals(new String[] { "1", "4" }, Files.readAllLines(outDir.resolve("integers.txt")).toArray());
+	}
+
+	@DisplayName("С флагом --binary пишет числа блоками с min/max, длинные целые - в отдельные блоки")
+	@Test
+	void writesBinaryNumbers(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("numbers.txt");
+		List<String> lines = new ArrayList<>();
+		for (int i = 1; i <= 10_000; i++)
+			lines.add(String.valueOf(i));
+		// ближайшие double к длинным целым: 1e23 меньше первого, -2^63 больше второго
+		lines.addAll(List.of("99999999999999999999999", "-9223372036854775809", "-5", "2,5", "1e3", "-", "0.1",
+				"3.14159265358979323846", "-0"));
+		Files.write(input, lines);
+		Path outDir = tempDir.resolve("out");
+		Result res = runJar(outDir, "-s", "--binary", input.toString());
+		// второй запуск дописывает блоки без заголовка файла
+		runJar(outDir, "-a", "--binary", input.toString());
+
+		assertTrue(res.stdout.contains("В файл integers.bin записано чисел: 10003"), res.stdout);
+		List<Long> longs = new ArrayList<>();
+		List<BigInteger> bigs = new ArrayList<>();
+		try (Columnar.Reader reader = new Columnar.Reader(outDir.resolve("integers.bin"))) {
+			assertTrue(reader.kind() == Columnar.INTEGERS_FILE);
+			Columnar.Block block;
+			while ((block = reader.next()) != null) {
+				if (block.type() == Columnar.BIG_INTEGERS) {
+					bigs.addAll(block.bigIntegers());
+					// границы не уже самих значений
+					assertTrue(block.minDouble() == Math.nextDown(-0x1p63) && block.maxDouble() == Math.nextUp(1e23));
+					continue;
+				}
+				LongBuffer values = block.longs();
+				long min = Long.MAX_VALUE;
+				long max = Long.MIN_VALUE;
+				while (values.hasRemaining()) {
+					long value = values.get();
+					longs.add(value);
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+				}
+				assertTrue(block.count() <= 8192 && block.minLong() == min && block.maxLong() == max);
+			}
+		}
+		assertTrue(longs.size() == 20_002 && longs.get(0) == 1 && longs.get(10_000) == -5, longs.toString());
+		BigInteger big = new BigInteger("99999999999999999999999");
+		BigInteger negative = new BigInteger("-9223372036854775809");
+		assertTrue(bigs.equals(List.of(big, negative, big, negative)), bigs.toString());
+
+		try (Columnar.Reader reader = new Columnar.Reader(outDir.resolve("floats.bin"))) {
+			Columnar.Block block = reader.next();
+			double[] values = new double[block.count()];
+			block.doubles().get(values);
+			assertArrayEquals(new double[] { 2.5, 1000, Double.NaN, 0.1, 3.141592653589793, -0.0 }, values);
+			assertTrue(block.minDouble() == -0.0 && block.maxDouble() == 1000);
+			assertTrue(reader.next() != null && reader.next() == null);
+		}
+	}
+
+	@DisplayName("Строки с ошибками считаются в статистике, а с флагом --reject откладываются в rejected.txt")
+	@Test
+	void quarantinesBadLines(@TempDir Path tempDir) throws Exception {
+		Path input = tempDir.resolve("bad.txt");
+		byte[] broken = { (byte) 0xff, (byte) 0xfe, 'x' };
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write("1\n-\nок\n".getBytes(Charset.forName("UTF-8")));
+		bytes.write(broken);
+		bytes.write("\n2,5\ne5\n".getBytes(Charset.forName("UTF-8")));
+		Files.write(input, bytes.toByteArray());
+		Path replaced = tempDir.resolve("replaced");
+		Path rejected = tempDir.resolve("rejected");
+		Result full = runJar(replaced, "-f", input.toString());
+		Result res = runJar(rejected, "-s", "--reject", input.toString());
+
+		assertTrue(full.exitCode == 0 && full.stdout.contains("Строк с ошибками: 3"), full.stdout);
+		assertTrue(full.stdout.contains("Сумма (точность до 10 значащих цифр): 2.5"), full.stdout);
+		assertArrayEquals(new String[] { "-", "2.5", "e5" }, Files.readAllLines(replaced.resolve("floats.txt")).toArray());
+		assertTrue(res.stdout.contains("В файл rejected.txt записано строк с ошибками: 3"), res.stdout);
+		assertArrayEquals(new String[] { "2.5" }, Files.readAllLines(rejected.resolve("floats.txt")).toArray());
+		assertArrayEquals(new String[] { "ок" }, Files.readAllLines(rejected.resolve("strings.txt")).toArray());
+		byte[] quarantined = Files.readAllBytes(rejected.resolve("rejected.txt"));
+		String expected = input + "\t2\tчисло без цифр\t-\n" + input + "\t9\tнекорректный UTF-8\t" + "\u0000\n"
+				+ input + "\t17\tчисло без цифр\te5\n";
+		byte[] expectedBytes = expected.replace("\n", System.lineSeparator()).getBytes(Charset.forName("UTF-8"));
+		// на месте \u0000 - исходные байты строки
+		ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		for (byte b : expectedBytes) {
+			if (b == 0)
+				raw.write(broken);
+			else
+				raw.write(b);
+		}
+		assertArrayEquals(raw.toByteArray(), quarantined);
+	}
+
+	@DisplayName("Строки длиннее буфера потока (1 МБ) читаются из stdin и gzip с --mmap так же, как без него")
+	@Test
+	void readsLongLinesFromStream(@TempDir Path tempDir) throws Exception {
+		String input = "a".repeat(2_600_000) + "\n" + "b".repeat(1_600_000) + "\n12\n";
+		byte[] bytes = input.getBytes(Charset.forName("UTF-8"));
+		Path gz = tempDir.resolve("long.txt.gz");
+		try (var out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+			out.write(bytes);
+		}
+		String plain = pipe(bytes, "-o", tempDir.resolve("plain").toString(), "-s", "-");
+		String mapped = pipe(bytes, "-o", tempDir.resolve("mapped").toString(), "-s", "--mmap", "-");
+		Result rejected = runJar(tempDir.resolve("gz"), "-s", "--reject", gz.toString());
+
+		assertTrue(plain.contains("strings.txt записано строк: 2") && plain.contains("integers.txt записано чисел: 1"), plain);
+		assertTrue(mapped.equals(plain), mapped);
+		assertTrue(rejected.exitCode == 0 && rejected.stdout.contains("strings.txt записано строк: 2"), rejected.stdout);
+		assertArrayEquals(Files.readAllBytes(tempDir.resolve("plain/strings.txt")),
+				Files.readAllBytes(tempDir.resolve("gz/strings.txt")));
+		assertArrayEquals(new String[] { "12" }, Files.readAllLines(tempDir.resolve("gz/integers.txt")).toArray());
+	}
+
+	@DisplayName("С флагом --workers обработчики делят файлы, а результат и статистика те же, что в одном процессе")
+	@Test
+	void mergesWorkerShards(@TempDir Path tempDir) throws Exception {
+		Path big = tempDir.resolve("big.txt");
+		Random random = new Random(5);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 200_000; i++) {
+			lines.add(switch (random.nextInt(4)) {
+				case 0 -> String.valueOf(random.nextInt());
+				case 1 -> random.nextInt(1000) + "," + random.nextInt(100);
+				case 2 -> "0x" + Integer.toHexString(random.nextInt());
+				default -> "строка " + random.nextInt(1000);
+			});
+		}
+		Files.write(big, lines);
+		Path small = tempDir.resolve("small.txt");
+		Files.write(small, List.of("7", "-", "0xAB", "конец"));
+		Path singleDir = tempDir.resolve("single");
+		Path shardedDir = tempDir.resolve("sharded");
+		String[] args = { "-f", "--split", "1", "--binary", "--category", "hex", big.toString(), small.toString() };
+		Result single = runJar(singleDir, args);
+		List<String> sharded = new ArrayList<>(List.of("--workers", "3"));
+		sharded.addAll(List.of(args));
+		Result res = runJar(shardedDir, sharded.toArray(String[]::new));
+
+		assertTrue(res.exitCode == 0);
+		assertTrue(res.stdout.equals(single.stdout), "Вывод должен совпадать:\n" + res.stdout);
+		for (String fname : List.of("strings.txt", "hex.txt"))
+			assertArrayEquals(Files.readAllBytes(singleDir.resolve(fname)), Files.readAllBytes(shardedDir.resolve(fname)));
+		for (String fname : List.of("integers.bin", "floats.bin"))
+			assertTrue(columnValues(singleDir.resolve(fname)).equals(columnValues(shardedDir.resolve(fname))), fname);
+		assertFalse(Files.exists(shardedDir.resolve(".shards")));
+	}
+
+	// значения всех блоков по порядку, заголовки файла между блоками пропускаются
+	private static List<Object> columnValues(Path file) throws Exception {
+		List<Object> values = new ArrayList<>();
+		try (Columnar.Reader reader = new Columnar.Reader(file)) {
+			Columnar.Block block;
+			while ((block = reader.next()) != null) {
+				if (block.type() == Columnar.LONGS) {
+					LongBuffer longs = block.longs();
+					while (longs.hasRemaining())
+						values.add(longs.get());
+				} else if (block.type() == Columnar.DOUBLES) {
+					DoubleBuffer doubles = block.doubles();
+					while (doubles.hasRemaining())
+						values.add(doubles.get());
+				} else {
+					values.addAll(block.bigIntegers());
+				}
+			}
+		}
+		return values;
+	}
+
+	private static byte[] zstd(byte[] data) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (var out = new ZstdOutputStream(bytes)) {
+			out.write(data);
+		}
+		return bytes.toByteArray();
+	}
+
+	/** Запускает утилиту с input в stdin, возвращает её stdout без сообщений. */
+	private static String pipe(byte[] input, String... args) throws Exception {
+		List<String> cmd = new ArrayList<>(
+				List.of("java", "-jar", Path.of("target", "sorting-util-1.0.jar").toString()));
+		cmd.addAll(Arrays.asList(args));
+		Process p = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+		try (OutputStream in = p.getOutputStream()) {
+			in.write(input);
+		}
+		String out = new String(p.getInputStream().readAllBytes(), Charset.forName("UTF-8"));
+		assertTrue(p.waitFor() == 0);
+		return out.replace(System.lineSeparator(), "\n");
+	}
+
+	private static void awaitContent(Path file, String expected) throws Exception {
+		long deadline = System.currentTimeMillis() + 20_000;
+		while (System.currentTimeMillis() < deadline) {
+			if (Files.exists(file) && Files.readString(file).equals(expected.replace("\n", System.lineSeparator())))
+				return;
+			Thread.sleep(100);
+		}
+		throw new AssertionError("В " + file + " не появилось: " + expected);
+	}
 }